@@ -0,0 +1,107 @@
+package net.classicube.benchmarks;
+
+import net.classicube.ClientHandler;
+import net.classicube.Config;
+import net.classicube.MinecraftClassicServer;
+import net.classicube.api.enums.BlockType;
+import net.classicube.level.LevelManager;
+import net.classicube.packets.SetBlockServerPacket;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Fan-out of one block change to every client in a level, as done for player and physics edits.
+// This measures the broadcasting thread, which encodes once and queues for every client;
+// each client's writer thread drains its queue into a discarding socket in the background.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"1", "16", "64"})
+    public int clientCount;
+
+    private final List<ClientHandler> handlers = new ArrayList<>();
+    private SetBlockServerPacket packet;
+
+    @Setup
+    public void setup() throws Exception {
+        MinecraftClassicServer server = createServer(new LevelManager());
+        for (int i = 0; i < clientCount; i++) {
+            ClientHandler handler = new ClientHandler(new DiscardingSocket(), server);
+            ClientHandler.clients.put(handler.getPlayerId(), handler);
+            handlers.add(handler);
+        }
+
+        packet = new SetBlockServerPacket();
+        packet.setX((short) 10);
+        packet.setY((short) 20);
+        packet.setZ((short) 30);
+        packet.setBlockType(BlockType.STONE.getId());
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (ClientHandler handler : handlers) {
+            ClientHandler.clients.remove(handler.getPlayerId());
+        }
+        handlers.clear();
+    }
+
+    @Benchmark
+    public void broadcastPacketToLevel() {
+        ClientHandler.broadcastPacketToLevel(packet, "main");
+    }
+
+    // Default config and no listeners, so nothing is read from server.properties
+    // and the game port stays free
+    static MinecraftClassicServer createServer(LevelManager levelManager) throws IOException {
+        return new MinecraftClassicServer(new Config(), levelManager);
+    }
+
+    static class DiscardingSocket extends Socket {
+        private final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public void setTcpNoDelay(boolean on) {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+    }
+}
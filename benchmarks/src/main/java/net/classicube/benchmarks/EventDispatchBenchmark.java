@@ -0,0 +1,77 @@
+package net.classicube.benchmarks;
+
+import net.classicube.api.Location;
+import net.classicube.api.Player;
+import net.classicube.api.enums.BlockType;
+import net.classicube.api.event.EventRegistry;
+import net.classicube.api.event.PlayerPlaceBlockEvent;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Dispatch cost of PlayerPlaceBlockEvent as done by ClientHandler.handleBlockPlacement
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventDispatchBenchmark {
+    @Param({"0", "1", "10"})
+    public int listenerCount;
+
+    private final List<Object> listeners = new ArrayList<>();
+    private Player player;
+    private Location location;
+
+    @Setup
+    public void setup() {
+        player = new Player(null);
+        location = Location.fromBlockCoordinates((short) 10, (short) 2, (short) 10);
+        for (int i = 0; i < listenerCount; i++) {
+            PlaceListener listener = new PlaceListener();
+            EventRegistry.registerListener(listener);
+            listeners.add(listener);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Object listener : listeners) {
+            EventRegistry.unregisterListener(listener);
+        }
+        listeners.clear();
+    }
+
+    @Benchmark
+    public BlockType dispatchPlaceEvent() {
+        BlockType blockType = BlockType.STONE;
+        if (EventRegistry.hasListeners(PlayerPlaceBlockEvent.class)) {
+            PlayerPlaceBlockEvent event = EventRegistry.callEvent(
+                    new PlayerPlaceBlockEvent(player, location, blockType));
+            if (event.isCancelled()) {
+                return null;
+            }
+            blockType = event.getBlockType();
+        }
+        return blockType;
+    }
+
+    @Benchmark
+    public void dispatchPlaceEventAlwaysConstructed(Blackhole blackhole) {
+        blackhole.consume(EventRegistry.callEvent(
+                new PlayerPlaceBlockEvent(player, location, BlockType.STONE)));
+    }
+
+    public static class PlaceListener {
+        private long placed;
+
+        @EventRegistry.EventHandler
+        public void onPlace(PlayerPlaceBlockEvent event) {
+            placed++;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package net.classicube.benchmarks;
+
+import net.classicube.ClientHandler;
+import net.classicube.MinecraftClassicServer;
+import net.classicube.level.Level;
+import net.classicube.level.LevelManager;
+import net.classicube.packets.ClientPositionPacket;
+import net.classicube.packets.MessagePacket;
+import net.classicube.packets.Packet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+// Reading and handling one packet from a client, from the socket stream to the handler.
+// Run with -prof gc: the position path should show no allocation per operation.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InboundBenchmark {
+    @Param({"Position", "Message"})
+    public String packetName;
+
+    private ClientHandler handler;
+
+    @Setup
+    public void setup() throws Exception {
+        Level level = new Level(64, 32, 64);
+        level.setName("main");
+        LevelManager levelManager = new LevelManager();
+        levelManager.addLevel(level);
+        MinecraftClassicServer server = BroadcastBenchmark.createServer(levelManager);
+        handler = new ClientHandler(new ReplaySocket(encode(createPacket(packetName))), server);
+    }
+
+    @Benchmark
+    public void handlePacket() throws IOException {
+        handler.handleNextPacket();
+    }
+
+    private static Packet createPacket(String name) {
+        if (name.equals("Position")) {
+            ClientPositionPacket packet = new ClientPositionPacket();
+            packet.setPlayerId((byte) -1);
+            packet.setX((short) (32 * 32));
+            packet.setY((short) (20 * 32));
+            packet.setZ((short) (32 * 32));
+            packet.setYaw((byte) 64);
+            return packet;
+        }
+        MessagePacket packet = new MessagePacket();
+        packet.setPlayerId((byte) -1);
+        packet.setMessage("hello world, this is a typical chat line");
+        return packet;
+    }
+
+    private static byte[] encode(Packet packet) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        packet.write(new DataOutputStream(buffer));
+        return buffer.toByteArray();
+    }
+
+    // Delivers the same packet over and over
+    private static class ReplaySocket extends BroadcastBenchmark.DiscardingSocket {
+        private final InputStream input;
+
+        ReplaySocket(byte[] packet) {
+            this.input = new InputStream() {
+                private int position;
+
+                @Override
+                public int read() {
+                    int b = packet[position] & 0xFF;
+                    position = (position + 1) % packet.length;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    for (int i = 0; i < len; i++) {
+                        b[off + i] = packet[position];
+                        position = position + 1 == packet.length ? 0 : position + 1;
+                    }
+                    return len;
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.classicube.benchmarks;
+
+import net.classicube.level.Level;
+import net.classicube.level.LevelManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Block storage conversions done on every level send and save, and the level compression
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LevelBenchmark {
+    // width x height x depth
+    @Param({"128x64x128", "256x64x256", "512x64x512"})
+    public String size;
+
+    private Level level;
+    private byte[] blockData;
+
+    @Setup
+    public void setup() {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        int depth = Integer.parseInt(dimensions[2]);
+        level = new Level(width, height, depth);
+
+        // Flat-world layout with some noise, so compression sees realistic input
+        Random random = new Random(42);
+        blockData = new byte[width * height * depth];
+        int layer = width * depth;
+        for (int i = 0; i < blockData.length; i++) {
+            int y = i / layer;
+            if (y < height / 2 - 1) {
+                blockData[i] = (byte) (random.nextInt(16) == 0 ? 13 : 1);
+            } else if (y == height / 2 - 1) {
+                blockData[i] = 2;
+            }
+        }
+        level.setBlockData(blockData);
+    }
+
+    @Benchmark
+    public byte[] getBlockData() {
+        return level.getBlockData();
+    }
+
+    @Benchmark
+    public Level setBlockData() {
+        level.setBlockData(blockData);
+        return level;
+    }
+
+    @Benchmark
+    public byte[] compressLevelData() throws IOException {
+        return LevelManager.compressLevelData(blockData);
+    }
+}
@@ -0,0 +1,233 @@
+package net.classicube.benchmarks;
+
+import net.classicube.api.BlockSelection;
+import net.classicube.api.Location;
+import net.classicube.api.enums.BlockType;
+import net.classicube.api.enums.EnvColorType;
+import net.classicube.api.enums.WeatherType;
+import net.classicube.packets.*;
+import net.classicube.packets.cpe.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Encoding and decoding cost of every packet class. Apart from ExtInfo and ExtEntry, CPE
+// packets are only ever sent by the server, so their read() is a no-op and only write is
+// meaningful for them.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBenchmark {
+    @Param({
+            "PlayerIdentification", "ServerIdentification", "LevelInitialize", "LevelDataChunk",
+            "LevelFinalize", "SetBlockClient", "SetBlockServer", "SpawnPlayer", "ClientPosition",
+            "ServerPosition", "DespawnPlayer", "Message", "DisconnectPlayer", "UpdateUserType",
+            "ExtInfo", "ExtEntry", "ExtAddPlayerName", "ExtRemovePlayerName", "EnvColors",
+            "EnvWeather", "HackControl", "HeldBlock", "MakeSelection", "RemoveSelection"
+    })
+    public String packetName;
+
+    private Packet packet;
+    private ByteArrayOutputStream buffer;
+    private DataOutputStream out;
+    private ByteArrayInputStream input;
+    private DataInputStream in;
+    private ByteBuffer encoded;
+    private ByteBuffer output;
+
+    @Setup
+    public void setup() throws IOException {
+        packet = createPacket(packetName);
+        buffer = new ByteArrayOutputStream(2048);
+        out = new DataOutputStream(buffer);
+        packet.write(out);
+        input = new ByteArrayInputStream(buffer.toByteArray());
+        in = new DataInputStream(input);
+        encoded = ByteBuffer.wrap(buffer.toByteArray());
+        output = ByteBuffer.allocateDirect(2048);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        buffer.reset();
+        packet.write(out);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int writeBuffer() {
+        ((Buffer) output).clear();
+        packet.write(output);
+        return output.position();
+    }
+
+    @Benchmark
+    public Packet read() throws IOException {
+        // Packet ids are consumed by the connection before read() is called
+        input.reset();
+        input.skip(1);
+        packet.read(in);
+        return packet;
+    }
+
+    // Decoding from a body PacketCodec has already read in full
+    @Benchmark
+    public Packet readBuffer() throws IOException {
+        ((Buffer) encoded).position(1);
+        packet.read(encoded);
+        return packet;
+    }
+
+    static Packet createPacket(String name) {
+        switch (name) {
+            case "PlayerIdentification": {
+                PlayerIdentificationPacket packet = new PlayerIdentificationPacket();
+                packet.setProtocolVersion((byte) 7);
+                packet.setUsername("BenchmarkPlayer");
+                packet.setVerificationKey("0123456789abcdef0123456789abcdef");
+                packet.setPaddingByte((byte) 0x42);
+                return packet;
+            }
+            case "ServerIdentification": {
+                ServerIdentificationPacket packet = new ServerIdentificationPacket();
+                packet.setProtocolVersion((byte) 7);
+                packet.setServerName("Benchmark Server");
+                packet.setServerMOTD("Welcome to a basic Minecraft Classic server!");
+                packet.setUserType((byte) 0);
+                return packet;
+            }
+            case "LevelInitialize":
+                return new LevelInitializePacket();
+            case "LevelDataChunk": {
+                LevelDataChunkPacket packet = new LevelDataChunkPacket();
+                byte[] data = new byte[1024];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (byte) i;
+                }
+                packet.setChunkLength((short) data.length);
+                packet.setChunkData(data);
+                packet.setPercentComplete((byte) 50);
+                return packet;
+            }
+            case "LevelFinalize": {
+                LevelFinalizePacket packet = new LevelFinalizePacket();
+                packet.setXSize((short) 256);
+                packet.setYSize((short) 64);
+                packet.setZSize((short) 256);
+                return packet;
+            }
+            case "SetBlockClient": {
+                SetBlockClientPacket packet = new SetBlockClientPacket();
+                packet.setX((short) 10);
+                packet.setY((short) 20);
+                packet.setZ((short) 30);
+                packet.setMode(1);
+                packet.setBlockType(BlockType.STONE.getId());
+                return packet;
+            }
+            case "SetBlockServer": {
+                SetBlockServerPacket packet = new SetBlockServerPacket();
+                packet.setX((short) 10);
+                packet.setY((short) 20);
+                packet.setZ((short) 30);
+                packet.setBlockType(BlockType.STONE.getId());
+                return packet;
+            }
+            case "SpawnPlayer": {
+                SpawnPlayerPacket packet = new SpawnPlayerPacket();
+                packet.setPlayerId((byte) 3);
+                packet.setPlayerName("BenchmarkPlayer");
+                packet.setX((short) 320);
+                packet.setY((short) 640);
+                packet.setZ((short) 320);
+                packet.setYaw((byte) 64);
+                packet.setPitch((byte) 0);
+                return packet;
+            }
+            case "ClientPosition": {
+                ClientPositionPacket packet = new ClientPositionPacket();
+                packet.setPlayerId((byte) -1);
+                packet.setX((short) 320);
+                packet.setY((short) 640);
+                packet.setZ((short) 320);
+                packet.setYaw((byte) 64);
+                packet.setPitch((byte) 0);
+                return packet;
+            }
+            case "ServerPosition": {
+                ServerPositionPacket packet = new ServerPositionPacket();
+                packet.setPlayerId((byte) 3);
+                packet.setX((short) 320);
+                packet.setY((short) 640);
+                packet.setZ((short) 320);
+                packet.setYaw((byte) 64);
+                packet.setPitch((byte) 0);
+                return packet;
+            }
+            case "DespawnPlayer": {
+                DespawnPlayerPacket packet = new DespawnPlayerPacket();
+                packet.setPlayerId((byte) 3);
+                return packet;
+            }
+            case "Message": {
+                MessagePacket packet = new MessagePacket();
+                packet.setPlayerId((byte) 3);
+                packet.setMessage("&eBenchmarkPlayer: hello world, this is a typical chat line");
+                return packet;
+            }
+            case "DisconnectPlayer": {
+                DisconnectPlayerPacket packet = new DisconnectPlayerPacket();
+                packet.setReason("Server shutting down");
+                return packet;
+            }
+            case "UpdateUserType": {
+                UpdateUserTypePacket packet = new UpdateUserTypePacket();
+                packet.setUserType((byte) 0x64);
+                return packet;
+            }
+            case "ExtInfo":
+                return new ExtInfoPacket();
+            case "ExtEntry":
+                return new ExtEntryPacket("EnvColors", 1);
+            case "ExtAddPlayerName": {
+                ExtAddPlayerNamePacket packet = new ExtAddPlayerNamePacket();
+                packet.setNameID((byte) 3);
+                packet.setAutocompletePlayerName("BenchmarkPlayer");
+                packet.setListPlayerName("&eBenchmarkPlayer");
+                packet.setGroupName("Players");
+                packet.setGroupRank((byte) 0);
+                return packet;
+            }
+            case "ExtRemovePlayerName":
+                return new ExtRemovePlayerNamePacket((byte) 3);
+            case "EnvColors":
+                return new EnvColorsPacket(EnvColorType.SKY_COLOR, new Color(120, 160, 255));
+            case "EnvWeather":
+                return new EnvWeatherPacket(WeatherType.RAINING);
+            case "HackControl":
+                return new HackControlPacket(true, false, true, false, true, (short) 40);
+            case "HeldBlock":
+                return new HeldBlockPacket(BlockType.STONE, false);
+            case "MakeSelection":
+                return new MakeSelectionPacket(new BlockSelection(
+                        Location.fromBlockCoordinates((short) 0, (short) 0, (short) 0),
+                        Location.fromBlockCoordinates((short) 8, (short) 8, (short) 8),
+                        Color.RED, "selection"));
+            case "RemoveSelection":
+                return new RemoveSelectionPacket((byte) 1);
+            default:
+                throw new IllegalArgumentException("Unknown packet: " + name);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package net.classicube.benchmarks;
+
+import net.classicube.api.API;
+import net.classicube.packets.PacketType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Per-message helpers on the chat and packet dispatch paths
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+    private static final String SHORT_MESSAGE = "&eBenchmarkPlayer: hello";
+    private static final String LONG_MESSAGE = "&eBenchmarkPlayer: this chat line is long enough that it " +
+            "has to be split into several chunks before it can be sent, like most command output\n" +
+            "and it also has a second line with a verylongwordthatdoesnotfitintoasinglechatlineandmustbesplitbyforce";
+
+    private byte[] packetIds;
+    private int next;
+
+    @Setup
+    public void setup() {
+        // Ids of every packet type, including UNKNOWN's -1
+        PacketType[] types = PacketType.values();
+        packetIds = new byte[types.length];
+        for (int i = 0; i < types.length; i++) {
+            packetIds[i] = types[i].getId();
+        }
+    }
+
+    @Benchmark
+    public List<String> splitShortMessage() {
+        return API.splitMessage(SHORT_MESSAGE);
+    }
+
+    @Benchmark
+    public List<String> splitLongMessage() {
+        return API.splitMessage(LONG_MESSAGE);
+    }
+
+    // Cycles through all ids, so early and late enum constants are weighted equally
+    @Benchmark
+    public PacketType packetTypeFromId() {
+        byte id = packetIds[next];
+        next = next + 1 == packetIds.length ? 0 : next + 1;
+        return PacketType.fromId(id);
+    }
+}
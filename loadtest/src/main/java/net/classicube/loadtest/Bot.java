@@ -0,0 +1,248 @@
+package net.classicube.loadtest;
+
+import net.classicube.HeartbeatManager;
+import net.classicube.api.enums.BlockType;
+import net.classicube.packets.ClientPositionPacket;
+import net.classicube.packets.MessagePacket;
+import net.classicube.packets.Packet;
+import net.classicube.packets.PacketCodec;
+import net.classicube.packets.PacketType;
+import net.classicube.packets.PlayerIdentificationPacket;
+import net.classicube.packets.SetBlockClientPacket;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// One simulated player: logs in, downloads the map, then walks, edits blocks and chats
+class Bot implements Runnable {
+    private final String name;
+    private final boolean webSocket;
+    private final BotSwarm.Options options;
+    private final SwarmStats stats;
+    private final Random random;
+    private final byte[] scratch = new byte[1100];
+
+    private volatile BotConnection connection;
+    private volatile boolean ready;
+    private volatile boolean closed;
+    private long connectStartedAt;
+    private long mapStartedAt;
+    private int width, height, depth;
+    private short x, y, z;
+    private int lastBlockX = -1, lastBlockY, lastBlockZ;
+    private int chatCount;
+
+    Bot(String name, boolean webSocket, BotSwarm.Options options, SwarmStats stats, long seed) {
+        this.name = name;
+        this.webSocket = webSocket;
+        this.options = options;
+        this.stats = stats;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public void run() {
+        connectStartedAt = System.nanoTime();
+        try {
+            connection = BotConnection.open(options.host, options.port, webSocket, options.deflate, stats);
+        } catch (IOException e) {
+            stats.connectFailures.increment();
+            stats.recordDisconnect("connect failed: " + e.getMessage());
+            return;
+        }
+
+        try {
+            sendIdentification();
+            DataInputStream in = connection.getInput();
+            while (!closed) {
+                handlePacket(in);
+            }
+        } catch (EOFException e) {
+            if (!closed) {
+                stats.recordDisconnect("connection closed by server");
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                stats.recordDisconnect("connection error: " + e.getMessage());
+            }
+        } finally {
+            if (ready) {
+                stats.online.decrementAndGet();
+            }
+            ready = false;
+            connection.close();
+        }
+    }
+
+    // Called periodically from the swarm's scheduler; each action fires with probability rate * interval
+    void act(double intervalSeconds) {
+        if (!ready || closed) {
+            return;
+        }
+        try {
+            if (random.nextDouble() < options.moveRate * intervalSeconds) {
+                move();
+            }
+            if (random.nextDouble() < options.blockRate * intervalSeconds) {
+                changeBlock();
+            }
+            if (random.nextDouble() < options.chatRate * intervalSeconds) {
+                chat();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    void close() {
+        closed = true;
+        BotConnection current = connection;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void handlePacket(DataInputStream in) throws IOException {
+        int id = in.readUnsignedByte();
+        stats.packetsReceived.increment();
+        switch (id) {
+            case 0x00:
+                in.readFully(scratch, 0, payloadLength(id));
+                stats.joinLatency.record(System.nanoTime() - connectStartedAt);
+                break;
+            case 0x02:
+                mapStartedAt = System.nanoTime();
+                break;
+            case 0x04:
+                width = in.readShort();
+                height = in.readShort();
+                depth = in.readShort();
+                stats.mapDownload.record(System.nanoTime() - mapStartedAt);
+                if (!ready) {
+                    ready = true;
+                    stats.joined.increment();
+                    stats.online.incrementAndGet();
+                }
+                break;
+            case 0x06: {
+                int blockX = in.readShort();
+                int blockY = in.readShort();
+                int blockZ = in.readShort();
+                stats.blockReceived(this, blockX, blockY, blockZ, in.readByte());
+                break;
+            }
+            case 0x08: {
+                byte playerId = in.readByte();
+                short newX = in.readShort();
+                short newY = in.readShort();
+                short newZ = in.readShort();
+                in.readShort();
+                if (playerId == -1) {
+                    synchronized (this) {
+                        x = newX;
+                        y = newY;
+                        z = newZ;
+                    }
+                }
+                break;
+            }
+            case 0x0e:
+                in.readFully(scratch, 0, 64);
+                stats.recordDisconnect(new String(scratch, 0, 64, StandardCharsets.US_ASCII).trim());
+                closed = true;
+                break;
+            default:
+                int length = payloadLength(id);
+                if (length < 0) {
+                    throw new IOException("Unknown packet id 0x" + Integer.toHexString(id));
+                }
+                in.readFully(scratch, 0, length);
+                break;
+        }
+    }
+
+    private void sendIdentification() throws IOException {
+        PlayerIdentificationPacket packet = new PlayerIdentificationPacket();
+        packet.setProtocolVersion((byte) 7);
+        packet.setUsername(name);
+        packet.setVerificationKey(options.salt == null ? "" : HeartbeatManager.generateMppass(options.salt, name));
+        packet.setPaddingByte((byte) 0);
+        send(packet);
+    }
+
+    // Random walk on the spot the server spawned us at, staying inside the map
+    private void move() throws IOException {
+        ClientPositionPacket packet = new ClientPositionPacket();
+        synchronized (this) {
+            x = clamp(x + random.nextInt(33) - 16, 32, width * 32 - 32);
+            z = clamp(z + random.nextInt(33) - 16, 32, depth * 32 - 32);
+            packet.setPlayerId((byte) -1);
+            packet.setX(x);
+            packet.setY(y);
+            packet.setZ(z);
+            packet.setYaw((byte) random.nextInt(256));
+            packet.setPitch((byte) 0);
+        }
+        send(packet);
+        stats.movesSent.increment();
+    }
+
+    // Alternates between placing a block near the bot and breaking the last one placed
+    private void changeBlock() throws IOException {
+        SetBlockClientPacket packet = new SetBlockClientPacket();
+        byte blockType;
+        if (lastBlockX >= 0) {
+            packet.setX((short) lastBlockX);
+            packet.setY((short) lastBlockY);
+            packet.setZ((short) lastBlockZ);
+            packet.setMode(0);
+            packet.setBlockType(BlockType.STONE.getId());
+            blockType = BlockType.AIR.getId();
+            lastBlockX = -1;
+        } else {
+            synchronized (this) {
+                lastBlockX = clamp(x / 32 + random.nextInt(9) - 4, 0, width - 1);
+                lastBlockY = clamp(y / 32, 1, height - 1);
+                lastBlockZ = clamp(z / 32 + random.nextInt(9) - 4, 0, depth - 1);
+            }
+            packet.setX((short) lastBlockX);
+            packet.setY((short) lastBlockY);
+            packet.setZ((short) lastBlockZ);
+            packet.setMode(1);
+            packet.setBlockType(BlockType.STONE.getId());
+            blockType = BlockType.STONE.getId();
+        }
+        stats.blockSent(this, packet.getX(), packet.getY(), packet.getZ(), blockType);
+        send(packet);
+    }
+
+    private void chat() throws IOException {
+        MessagePacket packet = new MessagePacket();
+        packet.setPlayerId((byte) -1);
+        packet.setMessage("load test message " + (++chatCount));
+        send(packet);
+        stats.chatsSent.increment();
+    }
+
+    private void send(Packet packet) throws IOException {
+        DataOutputStream out = connection.getOutput();
+        synchronized (out) {
+            packet.write(out);
+            out.flush();
+        }
+    }
+
+    private static short clamp(int value, int min, int max) {
+        return (short) Math.max(min, Math.min(max, value));
+    }
+
+    // Body length of a server packet, or -1 for ids the server never sends
+    private static int payloadLength(int id) {
+        PacketType type = PacketCodec.toClient((byte) id);
+        return type == null ? -1 : type.getLength() - 1;
+    }
+}
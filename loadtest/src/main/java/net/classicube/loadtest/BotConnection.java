@@ -0,0 +1,308 @@
+package net.classicube.loadtest;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Client side of a game connection, either raw TCP or the WebSocket framing the web client uses
+class BotConnection implements AutoCloseable {
+    private static final int CONNECT_TIMEOUT = 10_000;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private BotConnection(Socket socket, InputStream in, OutputStream out) {
+        this.socket = socket;
+        this.in = new DataInputStream(in);
+        this.out = new DataOutputStream(out);
+    }
+
+    static BotConnection open(String host, int port, boolean webSocket) throws IOException {
+        return open(host, port, webSocket, false, null);
+    }
+
+    // With deflate the bot offers permessage-deflate like a browser does; stats, if given,
+    // counts received WebSocket bytes on the wire and after inflating
+    static BotConnection open(String host, int port, boolean webSocket, boolean deflate, SwarmStats stats) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            if (!webSocket) {
+                return new BotConnection(socket, socket.getInputStream(),
+                        new BufferedOutputStream(socket.getOutputStream()));
+            }
+
+            boolean compressed = handshake(socket, host, port, deflate);
+            WebSocketOutput output = new WebSocketOutput(socket.getOutputStream());
+            return new BotConnection(socket, new WebSocketInput(socket.getInputStream(), output,
+                    compressed ? new Inflater(true) : null, stats), output);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    DataInputStream getInput() {
+        return in;
+    }
+
+    // Callers write whole packets under this lock and flush once
+    DataOutputStream getOutput() {
+        return out;
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Returns whether the server accepted permessage-deflate
+    private static boolean handshake(Socket socket, String host, int port, boolean deflate) throws IOException {
+        byte[] keyBytes = new byte[16];
+        ThreadLocalRandom.current().nextBytes(keyBytes);
+        String request = "GET / HTTP/1.1\r\n" +
+                "Host: " + host + ":" + port + "\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: " + Base64.getEncoder().encodeToString(keyBytes) + "\r\n" +
+                "Sec-WebSocket-Version: 13\r\n" +
+                (deflate ? "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n" : "") +
+                "Sec-WebSocket-Protocol: ClassiCube\r\n\r\n";
+        // The server sniffs the protocol from the first read, so send the request in one write
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+
+        // Read the response headers byte by byte so no frame data is consumed
+        InputStream input = socket.getInputStream();
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = input.read();
+            if (b == -1) {
+                throw new EOFException("Connection closed during WebSocket handshake");
+            }
+            headers.write(b);
+            matched = (b == "\r\n\r\n".charAt(matched)) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        String response = new String(headers.toByteArray(), StandardCharsets.US_ASCII);
+        if (!response.startsWith("HTTP/1.1 101")) {
+            throw new IOException("WebSocket handshake rejected: " + response.split("\r\n")[0]);
+        }
+        return response.toLowerCase().contains("sec-websocket-extensions: permessage-deflate");
+    }
+
+    // Concatenated payload of the server's binary frames, inflating compressed messages.
+    // Answers pings and ends at a close frame.
+    private static class WebSocketInput extends InputStream {
+        private static final byte[] DEFLATE_TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+        private final InputStream source;
+        private final WebSocketOutput output;
+        private final Inflater inflater;
+        private final SwarmStats stats;
+        private byte[] payload = new byte[0];
+        private int position;
+        private boolean compressedMessage;
+
+        WebSocketInput(InputStream source, WebSocketOutput output, Inflater inflater, SwarmStats stats) {
+            this.source = source;
+            this.output = output;
+            this.inflater = inflater;
+            this.stats = stats;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return payload[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, payload.length - position);
+            System.arraycopy(payload, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        private boolean fill() throws IOException {
+            while (position == payload.length) {
+                int first = source.read();
+                if (first == -1) {
+                    return false;
+                }
+                boolean fin = (first & 0x80) != 0;
+                int opcode = first & 0x0F;
+                int second = readByte();
+                long length = second & 0x7F;
+                int headerLength = 2;
+                if (length == 126) {
+                    length = (readByte() << 8) | readByte();
+                    headerLength += 2;
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | readByte();
+                    }
+                    headerLength += 8;
+                }
+                byte[] mask = null;
+                if ((second & 0x80) != 0) {
+                    mask = new byte[4];
+                    readFully(mask);
+                }
+                byte[] data = new byte[(int) length];
+                readFully(data);
+                if (mask != null) {
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] ^= mask[i & 3];
+                    }
+                }
+
+                switch (opcode) {
+                    case 0x2:
+                        compressedMessage = (first & 0x40) != 0;
+                        // fall through
+                    case 0x0:
+                        payload = compressedMessage ? inflate(data, fin) : data;
+                        position = 0;
+                        if (stats != null) {
+                            stats.webSocketWireBytes.add(headerLength + data.length);
+                            stats.webSocketPayloadBytes.add(payload.length);
+                        }
+                        break;
+                    case 0x8:
+                        return false;
+                    case 0x9:
+                        output.sendFrame(0xA, data, data.length);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return true;
+        }
+
+        private byte[] inflate(byte[] data, boolean fin) throws IOException {
+            if (inflater == null) {
+                throw new IOException("Compressed frame without permessage-deflate");
+            }
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[4096];
+            try {
+                inflater.setInput(data);
+                int count;
+                while ((count = inflater.inflate(buffer)) > 0) {
+                    inflated.write(buffer, 0, count);
+                }
+                if (fin) {
+                    inflater.setInput(DEFLATE_TAIL);
+                    while ((count = inflater.inflate(buffer)) > 0) {
+                        inflated.write(buffer, 0, count);
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed frame: " + e.getMessage());
+            }
+            return inflated.toByteArray();
+        }
+
+        private int readByte() throws IOException {
+            int b = source.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            return b;
+        }
+
+        private void readFully(byte[] data) throws IOException {
+            int read = 0;
+            while (read < data.length) {
+                int count = source.read(data, read, data.length - read);
+                if (count == -1) {
+                    throw new EOFException();
+                }
+                read += count;
+            }
+        }
+    }
+
+    // Buffers writes and sends them as one masked binary frame per flush, as browsers do
+    private static class WebSocketOutput extends OutputStream {
+        private final OutputStream socketOutput;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        WebSocketOutput(OutputStream socketOutput) {
+            this.socketOutput = socketOutput;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buffer.size() > 0) {
+                sendFrame(0x2, buffer.toByteArray(), buffer.size());
+                buffer.reset();
+            }
+        }
+
+        synchronized void sendFrame(int opcode, byte[] data, int length) throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(length + 14);
+            frame.write(0x80 | opcode);
+            if (length < 126) {
+                frame.write(0x80 | length);
+            } else if (length < 65536) {
+                frame.write(0x80 | 126);
+                frame.write(length >> 8);
+                frame.write(length);
+            } else {
+                frame.write(0x80 | 127);
+                for (int i = 7; i >= 0; i--) {
+                    frame.write((int) ((long) length >> (8 * i)));
+                }
+            }
+
+            byte[] mask = new byte[4];
+            ThreadLocalRandom.current().nextBytes(mask);
+            frame.write(mask, 0, 4);
+            for (int i = 0; i < length; i++) {
+                frame.write(data[i] ^ mask[i & 3]);
+            }
+            socketOutput.write(frame.toByteArray());
+            socketOutput.flush();
+        }
+    }
+}
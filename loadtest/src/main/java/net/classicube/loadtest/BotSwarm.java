@@ -0,0 +1,235 @@
+package net.classicube.loadtest;
+
+import net.classicube.metrics.Histogram;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Headless load generator: connects a swarm of simulated players to a running server
+// and reports join, map download and block-change latencies.
+public class BotSwarm {
+    private static final long ACTION_INTERVAL_MILLIS = 50;
+
+    private final Options options;
+    private final SwarmStats stats = new SwarmStats();
+    private final List<Bot> bots = new ArrayList<>();
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+
+    public BotSwarm(Options options) {
+        this.options = options;
+        this.scheduler = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+                    Thread thread = new Thread(runnable, "Swarm-Scheduler-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Options.USAGE);
+            System.exit(1);
+            return;
+        }
+        if (options.help) {
+            System.out.println(Options.USAGE);
+            return;
+        }
+        new BotSwarm(options).run();
+    }
+
+    public void run() throws InterruptedException {
+        System.out.printf("Starting %d bots against %s:%d (%.0f%% WebSocket), %ds run%n",
+                options.bots, options.host, options.port, options.webSocketShare * 100, options.durationSeconds);
+
+        long joinDelayMicros = (long) (1_000_000 / options.joinRate);
+        for (int i = 0; i < options.bots; i++) {
+            boolean webSocket = i < Math.round(options.bots * options.webSocketShare);
+            Bot bot = new Bot(options.namePrefix + i, webSocket, options, stats, options.seed + i);
+            bots.add(bot);
+            scheduler.schedule(() -> startBot(bot), i * joinDelayMicros, TimeUnit.MICROSECONDS);
+        }
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(options.reportSeconds);
+        while (System.nanoTime() < end) {
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, Math.min(end, nextReport) - System.nanoTime()));
+            if (System.nanoTime() >= nextReport) {
+                stats.expirePlacements();
+                System.out.println(progressLine(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)));
+                nextReport += TimeUnit.SECONDS.toNanos(options.reportSeconds);
+            }
+        }
+
+        scheduler.shutdownNow();
+        System.out.println(finalReport());
+        for (Bot bot : bots) {
+            bot.close();
+        }
+    }
+
+    private void startBot(Bot bot) {
+        Thread thread = new Thread(bot, "Bot-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+        double intervalSeconds = ACTION_INTERVAL_MILLIS / 1000.0;
+        scheduler.scheduleAtFixedRate(() -> bot.act(intervalSeconds),
+                ACTION_INTERVAL_MILLIS, ACTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private String progressLine(long elapsedSeconds) {
+        return String.format("[%4ds] online %d/%d, failed %d, disconnects %d | join p99 %s | block echo p50 %s p99 %s | fan-out p99 %s",
+                elapsedSeconds, stats.online.get(), options.bots, stats.connectFailures.sum(), totalDisconnects(),
+                millis(stats.joinLatency.getValueAtQuantile(0.99)),
+                millis(stats.blockEcho.getValueAtQuantile(0.5)), millis(stats.blockEcho.getValueAtQuantile(0.99)),
+                millis(stats.blockFanout.getValueAtQuantile(0.99)));
+    }
+
+    private String finalReport() {
+        StringBuilder report = new StringBuilder("\n=== Load test results ===\n");
+        report.append(String.format("Bots: %d joined of %d, %d connect failures, %d still online%n",
+                stats.joined.sum(), options.bots, stats.connectFailures.sum(), stats.online.get()));
+        report.append(String.format("Sent: %d moves, %d block changes, %d chat messages; received %d packets%n",
+                stats.movesSent.sum(), stats.blocksSent.sum(), stats.chatsSent.sum(), stats.packetsReceived.sum()));
+        long payloadBytes = stats.webSocketPayloadBytes.sum();
+        if (payloadBytes > 0) {
+            long wireBytes = stats.webSocketWireBytes.sum();
+            report.append(String.format("WebSocket received: %d bytes of packets in %d bytes of frames (%.1f%% saved)%n",
+                    payloadBytes, wireBytes, 100.0 * (payloadBytes - wireBytes) / payloadBytes));
+        }
+        report.append(latencyLine("Join (connect to server identification)", stats.joinLatency));
+        report.append(latencyLine("Map download", stats.mapDownload));
+        report.append(latencyLine("Block change echo to placer", stats.blockEcho));
+        report.append(latencyLine("Block change fan-out to others", stats.blockFanout));
+
+        report.append("Server-side disconnects: ").append(totalDisconnects()).append('\n');
+        for (Map.Entry<String, LongAdder> entry : stats.disconnects.entrySet()) {
+            report.append(String.format("  %6d  %s%n", entry.getValue().sum(), entry.getKey()));
+        }
+        return report.toString();
+    }
+
+    private long totalDisconnects() {
+        long total = 0;
+        for (LongAdder count : stats.disconnects.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    private static String latencyLine(String label, Histogram histogram) {
+        return String.format("%-40s n=%-7d p50 %s  p90 %s  p99 %s  p99.9 %s  max %s%n", label, histogram.getCount(),
+                millis(histogram.getValueAtQuantile(0.5)), millis(histogram.getValueAtQuantile(0.9)),
+                millis(histogram.getValueAtQuantile(0.99)), millis(histogram.getValueAtQuantile(0.999)),
+                millis(histogram.getMax()));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1fms", nanos / 1_000_000.0);
+    }
+
+    public static class Options {
+        static final String USAGE = "Usage: java -jar loadtest.jar [options]\n" +
+                "  --host <host>          server host (default localhost)\n" +
+                "  --port <port>          server port (default 25565)\n" +
+                "  --bots <n>             number of simulated players (default 10)\n" +
+                "  --websocket <0-1>      share of bots using WebSocket framing (default 0)\n" +
+                "  --deflate              WebSocket bots offer permessage-deflate\n" +
+                "  --join-rate <n>        bots connecting per second (default 5)\n" +
+                "  --duration <seconds>   length of the run (default 60)\n" +
+                "  --move-rate <n>        moves per bot per second (default 5)\n" +
+                "  --block-rate <n>       block changes per bot per second (default 0.5)\n" +
+                "  --chat-rate <n>        chat messages per bot per second (default 0.05)\n" +
+                "  --salt-file <file>     server.salt to sign logins when verify-players is on\n" +
+                "  --name-prefix <name>   bot name prefix (default Bot)\n" +
+                "  --report <seconds>     progress report interval (default 5)\n" +
+                "  --seed <n>             random seed (default 1)\n" +
+                "The server's max-players must be at least the number of bots.";
+
+        String host = "localhost";
+        int port = 25565;
+        int bots = 10;
+        double webSocketShare = 0;
+        boolean deflate;
+        double joinRate = 5;
+        int durationSeconds = 60;
+        double moveRate = 5;
+        double blockRate = 0.5;
+        double chatRate = 0.05;
+        String salt;
+        String namePrefix = "Bot";
+        int reportSeconds = 5;
+        long seed = 1;
+        boolean help;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--help") || arg.equals("-h")) {
+                    options.help = true;
+                    continue;
+                }
+                if (arg.equals("--deflate")) {
+                    options.deflate = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                try {
+                    switch (arg) {
+                        case "--host": options.host = value; break;
+                        case "--port": options.port = Integer.parseInt(value); break;
+                        case "--bots": options.bots = Integer.parseInt(value); break;
+                        case "--websocket": options.webSocketShare = Double.parseDouble(value); break;
+                        case "--join-rate": options.joinRate = Double.parseDouble(value); break;
+                        case "--duration": options.durationSeconds = Integer.parseInt(value); break;
+                        case "--move-rate": options.moveRate = Double.parseDouble(value); break;
+                        case "--block-rate": options.blockRate = Double.parseDouble(value); break;
+                        case "--chat-rate": options.chatRate = Double.parseDouble(value); break;
+                        case "--salt-file": options.salt = readSalt(value); break;
+                        case "--name-prefix": options.namePrefix = value; break;
+                        case "--report": options.reportSeconds = Integer.parseInt(value); break;
+                        case "--seed": options.seed = Long.parseLong(value); break;
+                        default: throw new IllegalArgumentException("Unknown option " + arg);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for " + arg + ": " + value);
+                }
+            }
+            if (options.bots <= 0 || options.joinRate <= 0 || options.durationSeconds <= 0 || options.reportSeconds <= 0) {
+                throw new IllegalArgumentException("--bots, --join-rate, --duration and --report must be positive");
+            }
+            if (options.webSocketShare < 0 || options.webSocketShare > 1) {
+                throw new IllegalArgumentException("--websocket must be between 0 and 1");
+            }
+            return options;
+        }
+
+        private static String readSalt(String file) {
+            try {
+                return new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8).trim();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can't read salt file " + file + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.classicube.loadtest;
+
+import net.classicube.metrics.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Measurements shared by all bots. Latencies are recorded in nanoseconds.
+class SwarmStats {
+    private static final long PLACEMENT_EXPIRY = TimeUnit.SECONDS.toNanos(10);
+
+    final Histogram joinLatency = new Histogram();
+    final Histogram mapDownload = new Histogram();
+    final Histogram blockEcho = new Histogram();
+    final Histogram blockFanout = new Histogram();
+
+    final AtomicInteger online = new AtomicInteger();
+    final LongAdder joined = new LongAdder();
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder packetsReceived = new LongAdder();
+    final LongAdder movesSent = new LongAdder();
+    final LongAdder blocksSent = new LongAdder();
+    final LongAdder chatsSent = new LongAdder();
+    final LongAdder webSocketWireBytes = new LongAdder();
+    final LongAdder webSocketPayloadBytes = new LongAdder();
+    final Map<String, LongAdder> disconnects = new ConcurrentHashMap<>();
+
+    // Block changes waiting to be seen, keyed by packed coordinates
+    private final Map<Long, Placement> placements = new ConcurrentHashMap<>();
+
+    void recordDisconnect(String reason) {
+        disconnects.computeIfAbsent(reason, key -> new LongAdder()).increment();
+    }
+
+    void blockSent(Bot bot, int x, int y, int z, byte blockType) {
+        placements.put(pack(x, y, z), new Placement(bot, System.nanoTime(), blockType));
+        blocksSent.increment();
+    }
+
+    void blockReceived(Bot receiver, int x, int y, int z, byte blockType) {
+        Placement placement = placements.get(pack(x, y, z));
+        if (placement == null || placement.blockType != blockType) {
+            return;
+        }
+        long latency = System.nanoTime() - placement.sentAt;
+        if (placement.bot == receiver) {
+            blockEcho.record(latency);
+        } else {
+            blockFanout.record(latency);
+        }
+    }
+
+    void expirePlacements() {
+        long cutoff = System.nanoTime() - PLACEMENT_EXPIRY;
+        placements.values().removeIf(placement -> placement.sentAt < cutoff);
+    }
+
+    private static long pack(int x, int y, int z) {
+        return ((long) (x & 0xFFFF) << 32) | ((long) (y & 0xFFFF) << 16) | (z & 0xFFFF);
+    }
+
+    private static class Placement {
+        final Bot bot;
+        final long sentAt;
+        final byte blockType;
+
+        Placement(Bot bot, long sentAt, byte blockType) {
+            this.bot = bot;
+            this.sentAt = sentAt;
+            this.blockType = blockType;
+        }
+    }
+}
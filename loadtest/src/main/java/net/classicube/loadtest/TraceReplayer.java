@@ -0,0 +1,297 @@
+package net.classicube.loadtest;
+
+import net.classicube.capture.PacketTrace;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Replays captured client sessions (see PacketCapture) against a server, keeping the
+// original timing between packets and between sessions, optionally sped up. The server
+// must run with verify-players=false since capture blanks the verification keys of the logins.
+public class TraceReplayer {
+    private static final String[] COMPARED_METRICS = {
+            "classic_process_cpu_seconds",
+            "classic_thread_allocated_bytes",
+            "classic_bytes_sent_total"
+    };
+
+    private final Options options;
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public TraceReplayer(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Options.USAGE);
+            System.exit(1);
+            return;
+        }
+        if (options.help) {
+            System.out.println(Options.USAGE);
+            return;
+        }
+        new TraceReplayer(options).run();
+    }
+
+    public void run() throws IOException, InterruptedException {
+        List<Session> sessions = loadSessions();
+        if (sessions.isEmpty()) {
+            System.err.println("No traces found");
+            return;
+        }
+        long firstStart = Long.MAX_VALUE;
+        long packets = 0;
+        for (Session session : sessions) {
+            firstStart = Math.min(firstStart, session.startMillis);
+            packets += session.records.size();
+        }
+        System.out.printf("Replaying %d sessions (%d packets) against %s:%d at %s%n", sessions.size(), packets,
+                options.host, options.port, options.speed == 0 ? "full speed" : options.speed + "x");
+
+        Map<String, Double> before = options.metrics ? fetchMetrics() : null;
+        CountDownLatch done = new CountDownLatch(sessions.size());
+        long start = System.nanoTime();
+        for (Session session : sessions) {
+            long delayMicros = scale((session.startMillis - firstStart) * 1000);
+            Thread thread = new Thread(() -> {
+                try {
+                    replay(session, start + TimeUnit.MICROSECONDS.toNanos(delayMicros));
+                } finally {
+                    done.countDown();
+                }
+            }, "Replay-" + session.file.getFileName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        long wallNanos = System.nanoTime() - start;
+
+        StringBuilder report = new StringBuilder("\n=== Replay results ===\n");
+        report.append(String.format("Sessions: %d replayed, %d failed%n", sessions.size() - failures.sum(), failures.sum()));
+        report.append(String.format("Sent: %d packets, %d bytes; received %d bytes%n",
+                packetsSent.sum(), bytesSent.sum(), bytesReceived.sum()));
+        report.append(String.format("Wall time: %.2fs%n", wallNanos / 1e9));
+        if (before != null) {
+            Map<String, Double> after = fetchMetrics();
+            report.append("Server metrics (delta):\n");
+            for (String name : COMPARED_METRICS) {
+                if (before.containsKey(name) && after.containsKey(name)) {
+                    report.append(String.format("  %-40s %,.3f%n", name, after.get(name) - before.get(name)));
+                } else {
+                    report.append(String.format("  %-40s n/a%n", name));
+                }
+            }
+        }
+        System.out.print(report);
+    }
+
+    private void replay(Session session, long startNanos) {
+        BotConnection connection = null;
+        try {
+            sleepUntil(startNanos);
+            connection = BotConnection.open(options.host, options.port, false);
+            Thread drain = startDrain(connection.getInput(), session.file.getFileName().toString());
+            DataOutputStream out = connection.getOutput();
+            for (PacketTrace.Record record : session.records) {
+                sleepUntil(startNanos + TimeUnit.MICROSECONDS.toNanos(scale(record.getOffsetMicros())));
+                out.write(record.getData());
+                out.flush();
+                packetsSent.increment();
+                bytesSent.add(record.getData().length);
+            }
+            // Let the server finish answering the last packets before hanging up
+            drain.join(options.lingerMillis);
+        } catch (IOException e) {
+            failures.increment();
+            System.err.println("Replay of " + session.file + " failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private Thread startDrain(DataInputStream in, String name) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[8192];
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    bytesReceived.add(read);
+                }
+            } catch (IOException ignored) {
+                // Closed by the replay thread
+            }
+        }, "Replay-Drain-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private long scale(long micros) {
+        return options.speed == 0 ? 0 : (long) (micros / options.speed);
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    private List<Session> loadSessions() throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String name : options.traces) {
+            Path path = Paths.get(name);
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*" + PacketTrace.FILE_EXTENSION)) {
+                    for (Path file : stream) {
+                        files.add(file);
+                    }
+                }
+            } else {
+                files.add(path);
+            }
+        }
+
+        List<Session> sessions = new ArrayList<>();
+        for (Path file : files) {
+            try (PacketTrace.Reader reader = new PacketTrace.Reader(file)) {
+                Session session = new Session(file, reader.getStartMillis());
+                PacketTrace.Record record;
+                while ((record = reader.next()) != null) {
+                    session.records.add(record);
+                }
+                sessions.add(session);
+            }
+        }
+        return sessions;
+    }
+
+    // Reads unlabelled samples from the server's /metrics page
+    private Map<String, Double> fetchMetrics() {
+        Map<String, Double> values = new HashMap<>();
+        try {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://" + options.host + ":" + options.port + "/metrics").openConnection();
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(5000);
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    if (line.startsWith("#") || space < 0 || line.indexOf('{') >= 0) {
+                        continue;
+                    }
+                    try {
+                        values.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1).trim()));
+                    } catch (NumberFormatException ignored) {
+                        // Not a plain sample
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read server metrics: " + e.getMessage());
+        }
+        return values;
+    }
+
+    private static class Session {
+        private final Path file;
+        private final long startMillis;
+        private final List<PacketTrace.Record> records = new ArrayList<>();
+
+        Session(Path file, long startMillis) {
+            this.file = file;
+            this.startMillis = startMillis;
+        }
+    }
+
+    public static class Options {
+        static final String USAGE = "Usage: java -cp loadtest.jar net.classicube.loadtest.TraceReplayer [options] <trace or directory>...\n" +
+                "  --host <host>          server host (default localhost)\n" +
+                "  --port <port>          server port (default 25565)\n" +
+                "  --speed <n>            replay speed, 1 = original timing, 0 = as fast as possible (default 1)\n" +
+                "  --linger <millis>      time to keep each session open after its last packet (default 1000)\n" +
+                "  --metrics              report server CPU, allocation and bytes sent from /metrics\n" +
+                "The server must run with verify-players=false.";
+
+        String host = "localhost";
+        int port = 25565;
+        double speed = 1;
+        long lingerMillis = 1000;
+        boolean metrics;
+        boolean help;
+        final List<String> traces = new ArrayList<>();
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--help") || arg.equals("-h")) {
+                    options.help = true;
+                    continue;
+                }
+                if (arg.equals("--metrics")) {
+                    options.metrics = true;
+                    continue;
+                }
+                if (!arg.startsWith("--")) {
+                    options.traces.add(arg);
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                try {
+                    switch (arg) {
+                        case "--host": options.host = value; break;
+                        case "--port": options.port = Integer.parseInt(value); break;
+                        case "--speed": options.speed = Double.parseDouble(value); break;
+                        case "--linger": options.lingerMillis = Long.parseLong(value); break;
+                        default: throw new IllegalArgumentException("Unknown option " + arg);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for " + arg + ": " + value);
+                }
+            }
+            if (!options.help && options.traces.isEmpty()) {
+                throw new IllegalArgumentException("No trace files given");
+            }
+            if (options.speed < 0 || options.lingerMillis < 0) {
+                throw new IllegalArgumentException("--speed and --linger can't be negative");
+            }
+            return options;
+        }
+    }
+}
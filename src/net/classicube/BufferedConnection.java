@@ -0,0 +1,48 @@
+package net.classicube;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+
+// An accepted socket whose input is buffered from the first byte. The protocol is sniffed
+// by peeking, so the bytes looked at stay in the buffer and the handler that takes over
+// reads them again through the same stream, straight from the real socket.
+public class BufferedConnection {
+    public static final int BUFFER_SIZE = 8192;
+
+    private final Socket socket;
+    private final BufferedInputStream input;
+
+    public BufferedConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.input = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+    }
+
+    // Blocks until length bytes have arrived or the stream ends, and returns how many were
+    // copied into buffer without consuming them
+    public int peek(byte[] buffer, int length) throws IOException {
+        input.mark(length);
+        try {
+            int offset = 0;
+            while (offset < length) {
+                int read = input.read(buffer, offset, length - offset);
+                if (read == -1) {
+                    break;
+                }
+                offset += read;
+            }
+            return offset;
+        } finally {
+            input.reset();
+        }
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    public InputStream getInput() {
+        return input;
+    }
+}
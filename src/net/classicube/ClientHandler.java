@@ -5,26 +5,45 @@ import net.classicube.api.Location;
 import net.classicube.api.Player;
 import net.classicube.api.enums.BlockType;
 import net.classicube.api.event.*;
+import net.classicube.capture.PacketCapture;
+import net.classicube.jfr.BroadcastEvent;
+import net.classicube.jfr.LevelSendEvent;
+import net.classicube.jfr.PacketHandleEvent;
 import net.classicube.level.Level;
+import net.classicube.level.LevelManager;
+import net.classicube.metrics.CountingOutputStream;
+import net.classicube.metrics.ServerMetrics;
 import net.classicube.packets.*;
-import net.classicube.packets.cpe.CPEPacket;
+import net.classicube.packets.cpe.CPEExtension;
 import net.classicube.packets.cpe.ExtAddPlayerNamePacket;
+import net.classicube.packets.cpe.ExtEntryPacket;
+import net.classicube.packets.cpe.ExtInfoPacket;
 import net.classicube.packets.cpe.ExtRemovePlayerNamePacket;
 
 import javax.swing.text.AbstractDocument;
 import java.io.*;
 import java.net.Socket;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.net.SocketException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.zip.GZIPOutputStream;
 
 public class ClientHandler implements Runnable, AutoCloseable {
     private static final int PACKET_BUFFER_SIZE = 8192;
     private static final int MAX_MESSAGE_LENGTH = 64;
+    private static final int LOGIN_TIMEOUT = 10 * 1000;
+    private static final int MAX_QUEUED_BYTES = 1024 * 1024; // broadcasts a client may fall behind by
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
     public static final ConcurrentHashMap<Byte, ClientHandler> clients = new ConcurrentHashMap<>();
+    // Lower-cased names of everyone past the auth stage, so a name can only be logged in once
+    private static final ConcurrentHashMap<String, ClientHandler> names = new ConcurrentHashMap<>();
     private static final PlayerIDManager idManager = new PlayerIDManager();
 
     private enum ClientState {
@@ -32,22 +51,50 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
 
     protected final Socket socket;
+    protected final InputStream socketInput; // buffered, and may hold bytes read while sniffing the protocol
     private final ReentrantLock writeLock = new ReentrantLock();
     private final ReentrantLock readLock = new ReentrantLock();
     private final MinecraftClassicServer server;
     private final byte playerId;
     private final Map<PacketType, PacketHandler> packetHandlers;
     private final AtomicReference<ClientState> state = new AtomicReference<>(ClientState.CONNECTING);
+    // Reused for every packet of their type; only this client's thread reads into them
+    private final ClientPositionPacket positionPacket = new ClientPositionPacket();
+    private final SetBlockClientPacket setBlockPacket = new SetBlockClientPacket();
+    private final MessagePacket messagePacket = new MessagePacket();
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(PACKET_BUFFER_SIZE);
+    // Broadcasts waiting for this client's writer thread, so the thread broadcasting, often
+    // the tick, never writes to this client's socket. Entries are only taken off under
+    // writeLock, and direct sends write whatever is queued first, so the client gets
+    // everything in the order it was sent.
+    private final Queue<EncodedPackets> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedBytes = new AtomicInteger();
+    // Queued entries are copied together here so a run of small broadcasts is one socket write
+    private final byte[] writeBuffer = new byte[WRITE_BUFFER_SIZE];
+    private final AtomicBoolean dropped = new AtomicBoolean();
+    private final Thread writer;
 
     protected DataInputStream in;
     protected DataOutputStream out;
     protected boolean supportsCPE;
+    // CPEExtension masks the client agreed to at our version; 0 until negotiation is done
+    private volatile long extensions;
     private String username;
+    private EncodedString encodedUsername;
     private short x, y, z;
     private byte yaw, pitch;
+    private volatile boolean positionChanged;
+    private PacketCapture capture;
+    private PacketCodec codec;
+    private volatile LoginPipeline.Pass admission; // the player slot, given back on disconnect
 
     public ClientHandler(Socket socket, MinecraftClassicServer server) throws IOException {
-        this.socket = socket;
+        this(new BufferedConnection(socket), server);
+    }
+
+    public ClientHandler(BufferedConnection connection, MinecraftClassicServer server) throws IOException {
+        this.socket = connection.getSocket();
+        this.socketInput = connection.getInput();
         this.server = server;
         try {
             this.playerId = idManager.getNextAvailableId();
@@ -55,6 +102,10 @@ public class ClientHandler implements Runnable, AutoCloseable {
             setupStreams();
 
             this.packetHandlers = initializePacketHandlers();
+            this.capture = PacketCapture.startSession(playerId);
+            this.writer = new Thread(ServerMetrics.countingAllocation(this::writeQueued), "Client-Writer-" + playerId);
+            writer.setDaemon(true);
+            writer.start();
             System.out.println("New client connected. Assigned player ID: " + playerId);
         } catch (PlayerIDManager.NoAvailableIDException e) {
             throw new IOException("Server is full - maximum players reached");
@@ -62,8 +113,8 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
 
     protected void setupStreams() throws IOException {
-        this.in = new DataInputStream(socket.getInputStream());
-        this.out = new DataOutputStream(socket.getOutputStream());
+        this.in = new DataInputStream(socketInput);
+        this.out = new DataOutputStream(new CountingOutputStream(socket.getOutputStream(), ServerMetrics.BYTES_SENT));
     }
 
     private Map<PacketType, PacketHandler> initializePacketHandlers() {
@@ -75,57 +126,89 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
 
     public static void broadcastPacket(Packet packet) {
+        BroadcastEvent broadcastEvent = new BroadcastEvent();
+        broadcastEvent.begin();
+        EncodedPackets encoded = new EncodedPackets(Collections.singletonList(packet));
+        int recipients = 0;
         for (ClientHandler client : getClients()) {
             if (client.socket.isConnected()) {
-                try {
-                    client.sendPacket(packet);
-                } catch (Exception e) {
-                    System.out.println("ERROR SENDING PACKET TO " + client + " " + e.getMessage());
-                }
+                recipients++;
+                client.queueEncoded(encoded);
             }
         }
+        ServerMetrics.BROADCAST_FANOUT.record(recipients);
+        broadcastEvent.commit(packet.getType().name(), 1, recipients);
     }
 
     public static void broadcastPacketExcept(Packet packet, ClientHandler except) {
+        BroadcastEvent broadcastEvent = new BroadcastEvent();
+        broadcastEvent.begin();
+        EncodedPackets encoded = new EncodedPackets(Collections.singletonList(packet));
+        int recipients = 0;
         for (ClientHandler client : getClients()) {
             if (client.socket.isConnected() && client != except) {
-                try {
-                    client.sendPacket(packet);
-                } catch (Exception e) {
-                    System.out.println("ERROR SENDING PACKET TO " + client + " " + e.getMessage());
-                }
+                recipients++;
+                client.queueEncoded(encoded);
             }
         }
+        ServerMetrics.BROADCAST_FANOUT.record(recipients);
+        broadcastEvent.commit(packet.getType().name(), 1, recipients);
     }
 
+    // Players switching level are left out until the new level has been sent
     public static Collection<ClientHandler> getClientsInLevel(String levelName) {
         return getClients().stream()
-                .filter(client -> levelName.equals(client.server.getLevelManager().getPlayerLevel(Player.getInstance(client))))
+                .filter(client -> {
+                    LevelManager levelManager = client.server.getLevelManager();
+                    Player player = Player.getInstance(client);
+                    return levelName.equals(levelManager.getPlayerLevel(player)) && !levelManager.isSwitching(player);
+                })
                 .collect(java.util.stream.Collectors.toList());
     }
 
     public static void broadcastPacketToLevel(Packet packet, String levelName) {
-        getClientsInLevel(levelName).stream()
-                .filter(client -> client.socket.isConnected())
-                .forEach(client -> {
-                    try {
-                        client.sendPacket(packet);
-                    } catch (Exception e) {
-                        System.out.println("ERROR SENDING PACKET TO " + client + " " + e.getMessage());
-                    }
-                });
+        BroadcastEvent broadcastEvent = new BroadcastEvent();
+        broadcastEvent.begin();
+        EncodedPackets encoded = new EncodedPackets(Collections.singletonList(packet));
+        int recipients = 0;
+        for (ClientHandler client : getClientsInLevel(levelName)) {
+            if (client.socket.isConnected()) {
+                recipients++;
+                client.queueEncoded(encoded);
+            }
+        }
+        ServerMetrics.BROADCAST_FANOUT.record(recipients);
+        broadcastEvent.commit(packet.getType().name(), 1, recipients);
+    }
+
+    public static void broadcastPacketsToLevel(List<? extends Packet> packets, String levelName) {
+        BroadcastEvent broadcastEvent = new BroadcastEvent();
+        broadcastEvent.begin();
+        EncodedPackets encoded = new EncodedPackets(packets);
+        int recipients = 0;
+        for (ClientHandler client : getClientsInLevel(levelName)) {
+            if (client.socket.isConnected()) {
+                recipients++;
+                client.queueEncoded(encoded);
+            }
+        }
+        ServerMetrics.BROADCAST_FANOUT.record(recipients);
+        broadcastEvent.commit(packets.isEmpty() ? "" : packets.get(0).getType().name(), packets.size(), recipients);
     }
 
     public static void broadcastPacketToLevelExcept(Packet packet, String levelName, ClientHandler except) {
-        getClientsInLevel(levelName).stream()
-                .filter(client -> client.socket.isConnected() && client != except)
-                .forEach(client -> {
-                    try {
-                        client.sendPacket(packet);
-                    } catch (Exception e) {
-                        System.out.println("ERROR SENDING PACKET TO " + client + " " + e.getMessage());
-                    }
-                });
+        BroadcastEvent broadcastEvent = new BroadcastEvent();
+        broadcastEvent.begin();
+        EncodedPackets encoded = new EncodedPackets(Collections.singletonList(packet));
+        int recipients = 0;
+        for (ClientHandler client : getClientsInLevel(levelName)) {
+            if (client.socket.isConnected() && client != except) {
+                recipients++;
+                client.queueEncoded(encoded);
+            }
+        }
+        ServerMetrics.BROADCAST_FANOUT.record(recipients);
+        broadcastEvent.commit(packet.getType().name(), 1, recipients);
     }
 
     public static ClientHandler getByName(String username) {
@@ -136,10 +219,9 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
 
     public static ClientHandler getByNameCaseInsensitive(String username) {
-        return getClients().stream()
-                .filter(client -> username.equalsIgnoreCase(client.getUsername()))
-                .findFirst()
-                .orElse(null);
+        ClientHandler client = names.get(username.toLowerCase());
+        // Only players who have finished joining count as online
+        return client != null && clients.get(client.playerId) == client ? client : null;
     }
 
     public static int getClientCount() {
@@ -161,47 +243,208 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
 
     public void sendPacket(Packet packet) throws IOException {
+        sendPacket(packet, false);
+    }
+
+    // precompressed marks packets whose payload is compressed already, like level chunks
+    private void sendPacket(Packet packet, boolean precompressed) throws IOException {
         if (state.get() == ClientState.DISCONNECTED) {
             return;
         }
 
         writeLock.lock();
         try {
-            if (packet instanceof CPEPacket && !this.supportsCPE) {
+            if (!canReceive(packet.getType())) {
                 return;
             }
-            packet.write(out);
-            out.flush();
+            writeOutbound();
+            ((Buffer) sendBuffer).clear();
+            packet.write(sendBuffer);
+            out.write(sendBuffer.array(), 0, sendBuffer.position());
+            flushOutput(precompressed);
+            ServerMetrics.packetsOut(packet.getType()).increment();
         } finally {
             writeLock.unlock();
         }
     }
 
+    // Writes all packets under a single lock with one flush at the end
+    public void sendPackets(List<? extends Packet> packets) throws IOException {
+        if (state.get() == ClientState.DISCONNECTED) {
+            return;
+        }
 
-    public void readPacket(Packet packet) throws IOException {
-        readLock.lock();
+        writeLock.lock();
         try {
-            packet.read(in);
+            writeOutbound();
+            ((Buffer) sendBuffer).clear();
+            for (Packet packet : packets) {
+                if (!canReceive(packet.getType())) {
+                    continue;
+                }
+                if (sendBuffer.remaining() < packet.getLength()) {
+                    out.write(sendBuffer.array(), 0, sendBuffer.position());
+                    ((Buffer) sendBuffer).clear();
+                }
+                packet.write(sendBuffer);
+                ServerMetrics.packetsOut(packet.getType()).increment();
+            }
+            out.write(sendBuffer.array(), 0, sendBuffer.position());
+            out.flush();
         } finally {
-            readLock.unlock();
+            writeLock.unlock();
         }
     }
 
-    public byte readPacketId() throws IOException {
+    // Pushes what was written to the socket. Transports that compress leave precompressed
+    // data as it is.
+    protected void flushOutput(boolean precompressed) throws IOException {
+        out.flush();
+    }
+
+    // Queues packets a broadcast has already encoded, so they are encoded once rather than
+    // per receiver. Packets the client can't receive are dropped and the rest re-encoded.
+    private void queueEncoded(EncodedPackets encoded) {
+        if (state.get() == ClientState.DISCONNECTED || dropped.get()) {
+            return;
+        }
+        if ((encoded.requiredExtensions & ~extensions) != 0) {
+            List<Packet> allowed = new ArrayList<>(encoded.packets.size());
+            for (Packet packet : encoded.packets) {
+                if (canReceive(packet.getType())) {
+                    allowed.add(packet);
+                }
+            }
+            if (allowed.isEmpty()) {
+                return;
+            }
+            encoded = new EncodedPackets(allowed);
+        }
+
+        int length = encoded.data.length;
+        if (queuedBytes.addAndGet(length) > MAX_QUEUED_BYTES) {
+            queuedBytes.addAndGet(-length);
+            dropSlowClient();
+            return;
+        }
+        outbound.add(encoded);
+        LockSupport.unpark(writer);
+    }
+
+    // A client this far behind has stopped reading or can't keep up. Closing the socket
+    // unblocks the writer and ends the read loop, which disconnects the player as usual.
+    private void dropSlowClient() {
+        if (!dropped.compareAndSet(false, true)) {
+            return;
+        }
+        ServerMetrics.SLOW_CLIENTS_DROPPED.increment();
+        System.out.println("Dropping " + this + ": too far behind on updates");
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Runs on this client's writer thread until the client disconnects
+    private void writeQueued() {
+        while (state.get() != ClientState.DISCONNECTED) {
+            if (outbound.isEmpty()) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    return;
+                }
+                continue;
+            }
+            writeLock.lock();
+            try {
+                writeOutbound();
+            } catch (IOException e) {
+                // The read side notices the broken connection and disconnects
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    // Writes everything queued so far, batched through writeBuffer. Only called while
+    // holding writeLock.
+    private void writeOutbound() throws IOException {
+        int buffered = 0;
+        boolean written = false;
+        EncodedPackets encoded;
+        while ((encoded = outbound.poll()) != null) {
+            byte[] data = encoded.data;
+            queuedBytes.addAndGet(-data.length);
+            if (buffered + data.length > writeBuffer.length) {
+                out.write(writeBuffer, 0, buffered);
+                buffered = 0;
+            }
+            if (data.length > writeBuffer.length) {
+                out.write(data);
+            } else {
+                System.arraycopy(data, 0, writeBuffer, buffered, data.length);
+                buffered += data.length;
+            }
+            for (Packet packet : encoded.packets) {
+                ServerMetrics.packetsOut(packet.getType()).increment();
+            }
+            written = true;
+        }
+        if (buffered > 0) {
+            out.write(writeBuffer, 0, buffered);
+        }
+        if (written) {
+            out.flush();
+        }
+    }
+
+    // Waits for the next whole packet from the client. Its body stays buffered until
+    // the following call and is decoded with readPacket.
+    public PacketType readNextPacket() throws IOException {
+        PacketType type;
         readLock.lock();
         try {
-            return in.readByte();
+            if (codec == null) {
+                codec = new PacketCodec(in);
+            }
+            type = codec.readPacket();
         } finally {
             readLock.unlock();
         }
+        ServerMetrics.packetsIn(type).increment();
+        if (capture != null) {
+            capture.record(codec.getData(), type.getLength());
+        }
+        return type;
+    }
+
+    // Whether the client agreed to every extension the packet type needs
+    private boolean canReceive(PacketType type) {
+        return (CPEExtension.requiredFor(type) & ~extensions) == 0;
+    }
+
+    public boolean supports(CPEExtension extension) {
+        return (extensions & extension.getMask()) != 0;
+    }
+
+    public void readPacket(Packet packet) throws IOException {
+        if (codec == null || packet.getType() != codec.getType()) {
+            throw new IOException("Expected " + packet.getType() + " but received " +
+                    (codec == null ? "nothing" : codec.getType()));
+        }
+        packet.read(codec.getPayload());
     }
 
     @Override
     public void run() {
+        LoginPipeline login = server.getLoginPipeline();
         try {
-            if (handlePlayerIdentification()) {
+            if (handlePlayerIdentification(login)) {
                 state.set(ClientState.ACTIVE);
-                sendLevelData();
+                if (!sendLevel(getCurrentLevel())) {
+                    disconnectPlayer("Too many players are joining, try again soon");
+                    return;
+                }
                 spawnPlayer();
                 broadcastSpawn();
                 clients.put(playerId, this);
@@ -218,15 +461,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
     private void gameLoop() {
         try {
             while (state.get() == ClientState.ACTIVE && socket.isConnected()) {
-                byte packetId = readPacketId();
-                PacketType packetType = PacketType.fromId(packetId);
-
-                PacketHandler handler = packetHandlers.get(packetType);
-                if (handler != null) {
-                    handler.handle();
-                } else {
-                    System.out.println("Unhandled packet type from " + username + ": " + packetType);
-                }
+                handleNextPacket();
             }
         } catch (EOFException e) {
             handleDisconnect("Client disconnected normally");
@@ -238,42 +473,147 @@ public class ClientHandler implements Runnable, AutoCloseable {
         }
     }
 
+    // Reads one packet from the client and runs its handler
+    public void handleNextPacket() throws IOException {
+        PacketType packetType = readNextPacket();
+
+        PacketHandler handler = packetHandlers.get(packetType);
+        if (handler != null) {
+            PacketHandleEvent handleEvent = new PacketHandleEvent();
+            handleEvent.begin();
+            handler.handle();
+            handleEvent.commit(packetType.name(), username);
+        } else {
+            System.out.println("Unhandled packet type from " + username + ": " + packetType);
+        }
+    }
+
     private void handleDisconnect(String reason) {
         disconnectPlayer(reason);
     }
 
-    private boolean handlePlayerIdentification() throws IOException {
-        byte firstPacketId = readPacketId();
-        if (firstPacketId != PacketType.PLAYER_IDENTIFICATION.getId()) {
-            disconnectPlayer("Invalid initial packet");
-            return false;
+    // Takes the client through the decode, auth and admission stages of the login pipeline.
+    // The server identification goes out right after decoding so that queue positions can be
+    // shown while the client waits in the later stages. The name isn't verified yet at that
+    // point, so it always says non-op and ops are told with UpdateUserType once it is.
+    private boolean handlePlayerIdentification(LoginPipeline login) throws IOException {
+        PlayerIdentificationPacket packet;
+        try (LoginPipeline.Pass pass = login.getDecode().enter(null)) {
+            if (pass == null) {
+                disconnectPlayer("Too many players are logging in, try again soon");
+                return false;
+            }
+            packet = readIdentification();
+            if (packet == null) {
+                return false;
+            }
         }
 
-        PlayerIdentificationPacket packet = new PlayerIdentificationPacket();
-        readPacket(packet);
-        this.supportsCPE = packet.getPaddingByte() == 0x42;
-
         if (packet.getProtocolVersion() != server.getProtocolVersion()) {
             disconnectPlayer("Incompatible protocol version");
             return false;
         }
 
         username = packet.getUsername();
+        encodedUsername = EncodedString.of(username);
+        sendServerIdentification();
 
-        if (getByNameCaseInsensitive(username) != null) {
-            disconnectPlayer("A player with that name is already online!");
-            return false;
+        try (LoginPipeline.Pass pass = login.getAuth().enter(this::sendQueuePosition)) {
+            if (pass == null) {
+                disconnectPlayer("Too many players are logging in, try again soon");
+                return false;
+            }
+            if (names.putIfAbsent(username.toLowerCase(), this) != null) {
+                disconnectPlayer("A player with that name is already online!");
+                return false;
+            }
+            if (!validatePlayer(packet)) {
+                return false;
+            }
+        }
+        if (Player.getInstance(this).isOP()) {
+            UpdateUserTypePacket userType = new UpdateUserTypePacket();
+            userType.setUserType((byte) 0x64);
+            sendPacket(userType);
         }
 
-        if (!validatePlayer(packet)) {
+        admission = login.getAdmission().enter(this::sendQueuePosition);
+        if (admission == null) {
+            disconnectPlayer("Server is full");
             return false;
         }
-
-        sendServerIdentification();
         sendPlayerNamePacket();
         return true;
     }
 
+    // Reads the identification packet and, for CPE clients, runs the extension exchange.
+    // Returns null if the client got either wrong. A client that sends nothing times out
+    // rather than holding its decode slot.
+    private PlayerIdentificationPacket readIdentification() throws IOException {
+        int previousTimeout = socket.getSoTimeout();
+        if (previousTimeout == 0 || previousTimeout > LOGIN_TIMEOUT) {
+            socket.setSoTimeout(LOGIN_TIMEOUT);
+        }
+        try {
+            if (readNextPacket() != PacketType.PLAYER_IDENTIFICATION) {
+                disconnectPlayer("Invalid initial packet");
+                return null;
+            }
+            PlayerIdentificationPacket packet = new PlayerIdentificationPacket();
+            readPacket(packet);
+            this.supportsCPE = packet.getPaddingByte() == 0x42;
+            if (supportsCPE && !negotiateExtensions()) {
+                return null;
+            }
+            return packet;
+        } finally {
+            socket.setSoTimeout(previousTimeout);
+        }
+    }
+
+    // Sends our ExtInfo and ExtEntry list, then reads the client's and keeps the extensions
+    // both sides have at the same version
+    private boolean negotiateExtensions() throws IOException {
+        CPEExtension[] offered = CPEExtension.values();
+        List<Packet> offer = new ArrayList<>(offered.length + 1);
+        offer.add(new ExtInfoPacket(offered.length));
+        for (CPEExtension extension : offered) {
+            offer.add(new ExtEntryPacket(extension.getName(), extension.getVersion()));
+        }
+        sendPackets(offer);
+
+        if (readNextPacket() != PacketType.CPE_EXTINFO) {
+            disconnectPlayer("Expected ExtInfo");
+            return false;
+        }
+        ExtInfoPacket info = new ExtInfoPacket();
+        readPacket(info);
+        long agreed = 0;
+        for (int i = 0; i < info.getExtensionCount(); i++) {
+            if (readNextPacket() != PacketType.CPE_EXTENTRY) {
+                disconnectPlayer("Expected ExtEntry");
+                return false;
+            }
+            ExtEntryPacket entry = new ExtEntryPacket();
+            readPacket(entry);
+            CPEExtension extension = CPEExtension.byName(entry.getExtensionName());
+            if (extension != null && extension.getVersion() == entry.getVersion()) {
+                agreed |= extension.getMask();
+            }
+        }
+        extensions = agreed;
+        System.out.println("Client " + info.getAppName() + " agreed to " + Long.bitCount(agreed) +
+                " of " + offered.length + " CPE extensions");
+        return true;
+    }
+
+    private void sendQueuePosition(LoginPipeline.Stage stage, int position) throws IOException {
+        MessagePacket packet = new MessagePacket();
+        packet.setPlayerId((byte) -1);
+        packet.setMessage("&e" + stage.getDescription() + ", you are #" + position + " in line");
+        sendPacket(packet);
+    }
+
     private boolean validatePlayer(PlayerIdentificationPacket packet) {
         if (server.isVerifyPlayers() && !server.verifyPlayer(username, packet.getVerificationKey())) {
             if (this instanceof WebSocketClientHandler) {
@@ -315,36 +655,56 @@ public class ClientHandler implements Runnable, AutoCloseable {
     private void sendServerIdentification() throws IOException {
         ServerIdentificationPacket response = new ServerIdentificationPacket();
         response.setProtocolVersion(server.getProtocolVersion());
-        response.setServerName(server.getServerName());
-        response.setServerMOTD(server.getServerMotd());
-        if (Player.getInstance(this).isOP()) {
-            response.setUserType((byte) 0x64);
-        } else {
-            response.setUserType((byte) 0x00);
-        }
+        response.setServerName(server.getEncodedServerName());
+        response.setServerMOTD(server.getEncodedServerMotd());
+        response.setUserType((byte) 0x00);
         sendPacket(response);
     }
 
     private Level getCurrentLevel()
     {
-        return API.getInstance().getServer().getLevelManager().getLevel("main");
+        return server.getLevelManager().getLevel("main");
     }
 
-    private void sendLevelData() throws IOException {
-        Level level = getCurrentLevel();
-        sendLevelInitialize();
-        sendCompressedLevelData(level);
-        sendLevelFinalize(level);
+    // Sends the whole level, on joining and when switching levels. The send holds a place in
+    // the login pipeline's map stage, and its chunks go through the map download scheduler.
+    // Returns false without sending anything if the map stage's line is full.
+    public boolean sendLevel(Level level) throws IOException {
+        return sendLevel(level, null);
+    }
+
+    // onPass, if given, runs once this client holds a map-stage pass, just before the level
+    // goes out
+    public boolean sendLevel(Level level, Runnable onPass) throws IOException {
+        try (LoginPipeline.Pass pass = server.getLoginPipeline().getMap().enter(this::sendQueuePosition)) {
+            if (pass == null) {
+                return false;
+            }
+            if (onPass != null) {
+                onPass.run();
+            }
+            LevelSendEvent sendEvent = new LevelSendEvent();
+            sendEvent.begin();
+            long start = System.nanoTime();
+            sendLevelInitialize();
+            int compressedBytes = sendCompressedLevelData(level);
+            sendLevelFinalize(level);
+            ServerMetrics.LEVEL_SEND.record(System.nanoTime() - start);
+            sendEvent.commit(username, level.getName(), compressedBytes);
+            return true;
+        }
     }
 
     private void sendLevelInitialize() throws IOException {
         sendPacket(new LevelInitializePacket());
     }
 
-    private void sendCompressedLevelData(Level level) throws IOException {
+    // Returns the compressed size of the level
+    private int sendCompressedLevelData(Level level) throws IOException {
+        MapDownloadScheduler scheduler = server.getMapDownloads();
         try {
             byte[] levelData = level.getBlockData();
-            byte[] compressedData = compressLevelData(levelData);
+            byte[] compressedData = LevelManager.compressLevelData(levelData);
             int chunkSize = 1024;
             int totalChunks = (compressedData.length + chunkSize - 1) / chunkSize;
 
@@ -360,32 +720,21 @@ public class ClientHandler implements Runnable, AutoCloseable {
                     chunkPacket.setChunkData(chunkData);
                     chunkPacket.setPercentComplete((byte) ((chunkIndex + 1) * 100 / totalChunks));
 
-                    sendPacket(chunkPacket);
+                    scheduler.acquire(chunkPacket.getLength());
+                    ServerMetrics.MAP_BYTES_SENT.add(chunkPacket.getLength());
+                    sendPacket(chunkPacket, true);
                 } catch (SocketException e) {
                     System.err.println("Socket error during level transmission for " + username + ": " + e.getMessage());
                     throw e;
                 }
             }
+            return compressedData.length;
         } catch (IOException e) {
             System.err.println("Failed to send level data to " + username + ": " + e.getMessage());
             throw e;
         }
     }
 
-    private byte[] compressLevelData(byte[] levelData) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(baos);
-        dos.writeInt(levelData.length);
-        dos.write(levelData);
-        //dos.flush();
-
-        ByteArrayOutputStream compressedBaos = new ByteArrayOutputStream();
-        try (GZIPOutputStream gzipOut = new GZIPOutputStream(compressedBaos)) {
-            gzipOut.write(baos.toByteArray());
-        }
-        return compressedBaos.toByteArray();
-    }
-
     private void sendLevelFinalize(Level level) throws IOException {
         LevelFinalizePacket finalizePacket = new LevelFinalizePacket();
         finalizePacket.setXSize(level.getWidth());
@@ -410,7 +759,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
 
         SpawnPlayerPacket spawnPacket = new SpawnPlayerPacket();
         spawnPacket.setPlayerId((byte) -1);
-        spawnPacket.setPlayerName(username);
+        spawnPacket.setPlayerName(encodedUsername);
         spawnPacket.setX(x);
         spawnPacket.setY(y);
         spawnPacket.setZ(z);
@@ -443,7 +792,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
     private void sendSpawnPacket(ClientHandler receiver, ClientHandler playerToSpawn) throws IOException {
         SpawnPlayerPacket spawnPacket = new SpawnPlayerPacket();
         spawnPacket.setPlayerId(playerToSpawn.playerId);
-        spawnPacket.setPlayerName(playerToSpawn.username);
+        spawnPacket.setPlayerName(playerToSpawn.encodedUsername);
         spawnPacket.setX(playerToSpawn.x);
         spawnPacket.setY(playerToSpawn.y);
         spawnPacket.setZ(playerToSpawn.z);
@@ -455,7 +804,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
 
     private void handleClientPosition() throws IOException {
-        ClientPositionPacket packet = new ClientPositionPacket();
+        ClientPositionPacket packet = positionPacket;
         readPacket(packet);
 
         short newX = packet.getX();
@@ -467,7 +816,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
             return;
         }
 
-        updateAndBroadcastPosition(packet);
+        updatePosition(packet);
     }
 
     private void sendPositionCorrection() throws IOException {
@@ -481,18 +830,68 @@ public class ClientHandler implements Runnable, AutoCloseable {
         sendPacket(correctPacket);
     }
 
-    private void updateAndBroadcastPosition(ClientPositionPacket packet) throws IOException {
+    // Movement is broadcast once per tick by broadcastMovement
+    private void updatePosition(ClientPositionPacket packet) {
         synchronized (this) {
             x = packet.getX();
             y = packet.getY();
             z = packet.getZ();
             yaw = packet.getYaw();
             pitch = packet.getPitch();
+            positionChanged = true;
         }
+    }
 
-        String levelName = server.getLevelManager().getPlayerLevel(Player.getInstance(this));
-        ServerPositionPacket updatePacket = createPositionUpdatePacket();
-        broadcastPacketToLevelExcept(updatePacket, levelName, this);
+    // Sends every position change since the last tick to the other players in the
+    // same level, as one batch per receiver
+    public static void broadcastMovement() {
+        Map<String, List<ClientHandler>> clientsByLevel = new HashMap<>();
+        for (ClientHandler client : getClients()) {
+            LevelManager levelManager = client.server.getLevelManager();
+            Player player = Player.getInstance(client);
+            if (levelManager.isSwitching(player)) {
+                continue;
+            }
+            String levelName = levelManager.getPlayerLevel(player);
+            clientsByLevel.computeIfAbsent(levelName, k -> new ArrayList<>()).add(client);
+        }
+
+        for (List<ClientHandler> levelClients : clientsByLevel.values()) {
+            List<ServerPositionPacket> updates = new ArrayList<>();
+            for (ClientHandler client : levelClients) {
+                if (client.positionChanged) {
+                    synchronized (client) {
+                        client.positionChanged = false;
+                        updates.add(client.createPositionUpdatePacket());
+                    }
+                }
+            }
+            if (updates.isEmpty()) {
+                continue;
+            }
+
+            BroadcastEvent broadcastEvent = new BroadcastEvent();
+            broadcastEvent.begin();
+            int recipients = 0;
+            for (ClientHandler receiver : levelClients) {
+                if (!receiver.socket.isConnected()) {
+                    continue;
+                }
+                List<ServerPositionPacket> toSend = new ArrayList<>(updates.size());
+                for (ServerPositionPacket update : updates) {
+                    if (update.getPlayerId() != receiver.playerId) {
+                        toSend.add(update);
+                    }
+                }
+                if (toSend.isEmpty()) {
+                    continue;
+                }
+                recipients++;
+                receiver.queueEncoded(new EncodedPackets(toSend));
+            }
+            ServerMetrics.BROADCAST_FANOUT.record(recipients);
+            broadcastEvent.commit(PacketType.POSITION_ORIENTATION_UPDATE.name(), updates.size(), recipients);
+        }
     }
 
     private ServerPositionPacket createPositionUpdatePacket() {
@@ -507,7 +906,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
 
     private void handleMessage() throws IOException {
-        MessagePacket packet = new MessagePacket();
+        MessagePacket packet = messagePacket;
         readPacket(packet);
 
         String message = packet.getMessage();
@@ -530,7 +929,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
 
     private void handleSetBlock() {
         try {
-            SetBlockClientPacket packet = new SetBlockClientPacket();
+            SetBlockClientPacket packet = setBlockPacket;
             readPacket(packet);
 
             if (!isValidBlockChange(packet)) {
@@ -538,17 +937,14 @@ public class ClientHandler implements Runnable, AutoCloseable {
                 return;
             }
 
-            Player player = Player.getInstance(this);
             Level currentLevel = getCurrentLevel();
-            Location blockLocation = Location.fromBlockCoordinates(
-                    packet.getX(), packet.getY(), packet.getZ());
             BlockType currentBlockType = BlockType.getById(
                     currentLevel.getBlock(packet.getX(), packet.getY(), packet.getZ()));
 
             if (packet.getMode().isDestroy()) {
-                handleBlockDestruction(player, blockLocation, currentBlockType, packet);
+                handleBlockDestruction(currentLevel, currentBlockType, packet);
             } else if (packet.getMode().isPlace()) {
-                handleBlockPlacement(player, blockLocation, packet);
+                handleBlockPlacement(currentLevel, currentBlockType, packet);
             }
         } catch (Exception e) {
             System.out.println("Error handling SET_BLOCK from " + username + ": " + e.getMessage());
@@ -556,25 +952,46 @@ public class ClientHandler implements Runnable, AutoCloseable {
         }
     }
 
-    private void handleBlockDestruction(Player player, Location location,
-                                        BlockType currentType, SetBlockClientPacket packet) throws IOException {
-        PlayerBreakBlockEvent breakEvent = new PlayerBreakBlockEvent(player, location, currentType);
-        EventRegistry.callEvent(breakEvent);
+    private Location getBlockLocation(SetBlockClientPacket packet) {
+        return Location.fromBlockCoordinates(packet.getX(), packet.getY(), packet.getZ());
+    }
 
-        if (!breakEvent.isCancelled()) {
-            getCurrentLevel().setBlock(packet.getX(), packet.getY(), packet.getZ(), BlockType.AIR);
-            broadcastBlockChange(packet.getX(), packet.getY(), packet.getZ(), BlockType.AIR);
+    private void handleBlockDestruction(Level level, BlockType currentType,
+                                        SetBlockClientPacket packet) throws IOException {
+        // Only build the event when a plugin is listening for it
+        if (EventRegistry.hasListeners(PlayerBreakBlockEvent.class)) {
+            PlayerBreakBlockEvent breakEvent = EventRegistry.callEvent(
+                    new PlayerBreakBlockEvent(Player.getInstance(this), getBlockLocation(packet), currentType));
+            if (breakEvent.isCancelled()) {
+                return;
+            }
         }
+
+        level.setBlock(packet.getX(), packet.getY(), packet.getZ(), BlockType.AIR);
+        broadcastBlockChange(packet.getX(), packet.getY(), packet.getZ(), BlockType.AIR);
+        notifyPhysics(level, packet, currentType);
     }
 
-    private void handleBlockPlacement(Player player, Location location,
+    private void handleBlockPlacement(Level level, BlockType currentType,
                                       SetBlockClientPacket packet) throws IOException {
-        PlayerPlaceBlockEvent placeEvent = new PlayerPlaceBlockEvent(player, location, packet.getBlockType());
-        EventRegistry.callEvent(placeEvent);
+        BlockType blockType = packet.getBlockType();
+        if (EventRegistry.hasListeners(PlayerPlaceBlockEvent.class)) {
+            PlayerPlaceBlockEvent placeEvent = EventRegistry.callEvent(
+                    new PlayerPlaceBlockEvent(Player.getInstance(this), getBlockLocation(packet), blockType));
+            if (placeEvent.isCancelled()) {
+                return;
+            }
+            blockType = placeEvent.getBlockType();
+        }
 
-        if (!placeEvent.isCancelled()) {
-            getCurrentLevel().setBlock(packet.getX(), packet.getY(), packet.getZ(), placeEvent.getBlockType());
-            broadcastBlockChange(packet.getX(), packet.getY(), packet.getZ(), placeEvent.getBlockType());
+        level.setBlock(packet.getX(), packet.getY(), packet.getZ(), blockType);
+        broadcastBlockChange(packet.getX(), packet.getY(), packet.getZ(), blockType);
+        notifyPhysics(level, packet, currentType);
+    }
+
+    private void notifyPhysics(Level level, SetBlockClientPacket packet, BlockType previousType) {
+        if (server.getConfig().isPhysicsEnabled()) {
+            level.getPhysics().onBlockChanged(packet.getX(), packet.getY(), packet.getZ(), previousType);
         }
     }
 
@@ -594,46 +1011,64 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
 
     public void disconnectPlayer(String reason) {
-        if (!state.compareAndSet(ClientState.ACTIVE, ClientState.DISCONNECTING)) {
+        // Connections that fail during login are closed too, so they don't keep their id and socket
+        ClientState previous = state.get();
+        if ((previous != ClientState.ACTIVE && previous != ClientState.CONNECTING) ||
+                !state.compareAndSet(previous, ClientState.DISCONNECTING)) {
             return;
         }
+        boolean wasActive = previous == ClientState.ACTIVE;
 
         System.out.println("Disconnecting player: " + (username != null ? username : "unknown") +
                 " (Reason: " + reason + ")");
 
         try {
-            sendDisconnectPacket(reason);
+            sendDisconnectPacket(reason, wasActive);
 
         } finally {
-            cleanup();
+            cleanup(wasActive);
         }
     }
 
-    private void sendDisconnectPacket(String reason) {
+    private void sendDisconnectPacket(String reason, boolean wasActive) {
         try {
             if (socket != null && !socket.isClosed()) {
                 DisconnectPlayerPacket disconnectPacket = new DisconnectPlayerPacket();
                 disconnectPacket.setReason(reason);
                 sendPacket(disconnectPacket);
-                broadcastPacket(new ExtRemovePlayerNamePacket(this.playerId));
+                if (wasActive) {
+                    broadcastPacket(new ExtRemovePlayerNamePacket(this.playerId));
+                }
             }
         } catch (IOException e) {
             System.out.println("Error sending disconnect packet: " + e.getMessage());
         }
     }
 
-    private void cleanup() {
+    private void cleanup(boolean wasActive) {
         try {
             if (playerId != -1) {
                 clients.remove(playerId);
                 idManager.releaseId(playerId);
-                broadcastDespawn();
+                if (wasActive) {
+                    broadcastDespawn();
+                }
                 Player.removeFromCache(this);
             }
+            if (username != null) {
+                names.remove(username.toLowerCase(), this);
+            }
+            if (admission != null) {
+                admission.close();
+            }
+            if (capture != null) {
+                capture.close();
+            }
 
             closeResources();
         } finally {
             state.set(ClientState.DISCONNECTED);
+            writer.interrupt();
         }
     }
 
@@ -645,7 +1080,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
         broadcastPacketToLevelExcept(despawnPacket, levelName, this);
     }
 
-    private void closeResources() {
+    protected void closeResources() {
         try {
             if (out != null) out.close();
             if (in != null) in.close();
@@ -696,6 +1131,10 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
 
     // Getters
+    public EncodedString getEncodedUsername() {
+        return encodedUsername;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -728,4 +1167,26 @@ public class ClientHandler implements Runnable, AutoCloseable {
     private interface PacketHandler {
         void handle() throws IOException;
     }
+
+    private static class EncodedPackets {
+        private final List<? extends Packet> packets;
+        private final byte[] data;
+        private final long requiredExtensions;
+
+        EncodedPackets(List<? extends Packet> packets) {
+            int length = 0;
+            long required = 0;
+            for (Packet packet : packets) {
+                length += packet.getLength();
+                required |= CPEExtension.requiredFor(packet.getType());
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            for (Packet packet : packets) {
+                packet.write(buffer);
+            }
+            this.packets = packets;
+            this.data = buffer.array();
+            this.requiredExtensions = required;
+        }
+    }
 }
\ No newline at end of file
@@ -22,6 +22,20 @@ public class Config {
     private int levelWidth = 1024;
     private int levelHeight = 64;
     private int levelLength = 1024;
+    private boolean physicsEnabled = true;
+    private int physicsUpdatesPerTick = 1000;
+    private int tickRate = 20;
+    private boolean metricsEnabled = false; // /metrics is unauthenticated and on the public port
+    private boolean packetCapture = false;
+    private boolean webSocketCompression = false;
+    private int webSocketCompressionWindowBits = 15;
+    private boolean webSocketCompressionContextTakeover = true;
+    private long webDownloadRate = 0;
+    private int loginDecodeConcurrency = 64;
+    private int loginAuthConcurrency = 4;
+    private int loginMapConcurrency = 2;
+    private int loginQueueLength = 64;
+    private long mapDownloadRate = 0;
     public Config() {
         this.properties = new Properties();
     }
@@ -57,6 +71,20 @@ public class Config {
             levelHeight = Integer.parseInt(properties.getProperty("level-height", String.valueOf(levelHeight)));
             levelLength = Integer.parseInt(properties.getProperty("level-length", String.valueOf(levelLength)));
             tempAdminPass = String.valueOf(properties.getProperty("tempadminpass", String.valueOf(tempAdminPass)));
+            physicsEnabled = Boolean.parseBoolean(properties.getProperty("physics-enabled", String.valueOf(physicsEnabled)));
+            physicsUpdatesPerTick = Integer.parseInt(properties.getProperty("physics-updates-per-tick", String.valueOf(physicsUpdatesPerTick)));
+            tickRate = Integer.parseInt(properties.getProperty("tick-rate", String.valueOf(tickRate)));
+            metricsEnabled = Boolean.parseBoolean(properties.getProperty("metrics-enabled", String.valueOf(metricsEnabled)));
+            packetCapture = Boolean.parseBoolean(properties.getProperty("packet-capture", String.valueOf(packetCapture)));
+            webSocketCompression = Boolean.parseBoolean(properties.getProperty("websocket-compression", String.valueOf(webSocketCompression)));
+            webSocketCompressionWindowBits = Integer.parseInt(properties.getProperty("websocket-compression-window-bits", String.valueOf(webSocketCompressionWindowBits)));
+            webSocketCompressionContextTakeover = Boolean.parseBoolean(properties.getProperty("websocket-compression-context-takeover", String.valueOf(webSocketCompressionContextTakeover)));
+            webDownloadRate = Long.parseLong(properties.getProperty("web-download-rate", String.valueOf(webDownloadRate)));
+            loginDecodeConcurrency = Integer.parseInt(properties.getProperty("login-decode-concurrency", String.valueOf(loginDecodeConcurrency)));
+            loginAuthConcurrency = Integer.parseInt(properties.getProperty("login-auth-concurrency", String.valueOf(loginAuthConcurrency)));
+            loginMapConcurrency = Integer.parseInt(properties.getProperty("login-map-concurrency", String.valueOf(loginMapConcurrency)));
+            loginQueueLength = Integer.parseInt(properties.getProperty("login-queue-length", String.valueOf(loginQueueLength)));
+            mapDownloadRate = Long.parseLong(properties.getProperty("map-download-rate", String.valueOf(mapDownloadRate)));
         } catch (IOException e) {
             System.out.println("Failed to load config file: " + e.getMessage());
             System.out.println("Using default values");
@@ -76,6 +104,20 @@ public class Config {
         properties.setProperty("level-height", String.valueOf(levelHeight));
         properties.setProperty("level-length", String.valueOf(levelLength));
         properties.setProperty("tempadminpass", String.valueOf(tempAdminPass));
+        properties.setProperty("physics-enabled", String.valueOf(physicsEnabled));
+        properties.setProperty("physics-updates-per-tick", String.valueOf(physicsUpdatesPerTick));
+        properties.setProperty("tick-rate", String.valueOf(tickRate));
+        properties.setProperty("metrics-enabled", String.valueOf(metricsEnabled));
+        properties.setProperty("packet-capture", String.valueOf(packetCapture));
+        properties.setProperty("websocket-compression", String.valueOf(webSocketCompression));
+        properties.setProperty("websocket-compression-window-bits", String.valueOf(webSocketCompressionWindowBits));
+        properties.setProperty("websocket-compression-context-takeover", String.valueOf(webSocketCompressionContextTakeover));
+        properties.setProperty("web-download-rate", String.valueOf(webDownloadRate));
+        properties.setProperty("login-decode-concurrency", String.valueOf(loginDecodeConcurrency));
+        properties.setProperty("login-auth-concurrency", String.valueOf(loginAuthConcurrency));
+        properties.setProperty("login-map-concurrency", String.valueOf(loginMapConcurrency));
+        properties.setProperty("login-queue-length", String.valueOf(loginQueueLength));
+        properties.setProperty("map-download-rate", String.valueOf(mapDownloadRate));
         try (FileOutputStream fos = new FileOutputStream(CONFIG_FILE)) {
             properties.store(fos, "Minecraft Classic Server Configuration");
         } catch (IOException e) {
@@ -123,4 +165,67 @@ public class Config {
     public String getTempAdminPass() {
         return tempAdminPass;
     }
-}
\ No newline at end of file
+
+    public boolean isPhysicsEnabled() {
+        return physicsEnabled;
+    }
+
+    public int getPhysicsUpdatesPerTick() {
+        return physicsUpdatesPerTick;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public boolean isPacketCapture() {
+        return packetCapture;
+    }
+
+    public boolean isWebSocketCompression() {
+        return webSocketCompression;
+    }
+
+    // Largest LZ77 window, as a power of two, that web clients may use for their messages
+    public int getWebSocketCompressionWindowBits() {
+        return webSocketCompressionWindowBits;
+    }
+
+    public boolean isWebSocketCompressionContextTakeover() {
+        return webSocketCompressionContextTakeover;
+    }
+
+    // Bytes per second for each web download, 0 for no limit
+    public long getWebDownloadRate() {
+        return webDownloadRate;
+    }
+
+    // Connections that may be waiting for their identification packet at once
+    public int getLoginDecodeConcurrency() {
+        return loginDecodeConcurrency;
+    }
+
+    public int getLoginAuthConcurrency() {
+        return loginAuthConcurrency;
+    }
+
+    // Maps being compressed and sent to joining players at once
+    public int getLoginMapConcurrency() {
+        return loginMapConcurrency;
+    }
+
+    // Players that may wait in line at each login stage
+    public int getLoginQueueLength() {
+        return loginQueueLength;
+    }
+
+    // Upload bytes per second shared by all map downloads and gameplay traffic sent while
+    // they run, 0 for no limit
+    public long getMapDownloadRate() {
+        return mapDownloadRate;
+    }
+}
@@ -1,5 +1,10 @@
 package net.classicube;
 
+import net.classicube.http.HttpRequest;
+import net.classicube.http.StaticFileServer;
+import net.classicube.http.StaticResource;
+import net.classicube.metrics.ServerMetrics;
+
 import java.io.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
@@ -7,15 +12,37 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DualProtocolServer {
     private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int HANDSHAKE_TIMEOUT = 5000; // per read while sniffing and upgrading
+    private static final int MAX_PENDING_HANDSHAKES = 64;
+    private static final int MAX_KEEP_ALIVE_REQUESTS = 100;
+    private static final int MAX_HTTP_CONNECTIONS = 64;
+    public static final long STALL_CHECK_INTERVAL = 5000;
+    private static final long DOWNLOAD_STALL_TIMEOUT = 30 * 1000;
+    private static final String PAGE_CACHE_CONTROL = "no-cache"; // revalidated, since it names this host
+    private static final String ASSET_CACHE_CONTROL = "public, max-age=86400";
     private final ServerSocket serverSocket;
     private final MinecraftClassicServer mcServer;
     private final Map<Socket, WebSocketClientHandler> wsClients = new ConcurrentHashMap<>();
+    // Sniffing and handshakes wait on the client, so they run here instead of on the accept
+    // thread. The semaphore bounds the threads, since a full pool refuses new connections.
+    private final ExecutorService handshakeExecutor;
+    private final Semaphore pendingHandshakes = new Semaphore(MAX_PENDING_HANDSHAKES);
+    // Pings are written here rather than on the tick, which must never wait on a socket
+    private final ExecutorService pingExecutor;
+    private final AtomicBoolean pinging = new AtomicBoolean();
     private volatile boolean running = true;
 
-    private final Map<String, CachedResponse> webCache = new ConcurrentHashMap<>();
+    private final StaticFileServer webServer;
+    private final Semaphore httpConnections = new Semaphore(MAX_HTTP_CONNECTIONS);
 
     public String getPublicIP() {
         try {
@@ -43,7 +70,22 @@ public class DualProtocolServer {
     public DualProtocolServer(MinecraftClassicServer mcServer, int port) throws IOException {
         this.mcServer = mcServer;
         this.serverSocket = new ServerSocket(port);
-        this.webCache.put("/", new CachedResponse("WEB GUEST DISABELD".getBytes(), "text/html"));
+        AtomicInteger handshakeThreads = new AtomicInteger();
+        this.handshakeExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(ServerMetrics.countingAllocation(runnable), "Handshake-" + handshakeThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pingExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WebSocket-Ping");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.webServer = new StaticFileServer(mcServer.getConfig().getWebDownloadRate());
+        ServerMetrics.REGISTRY.gauge("classic_pending_handshakes", "Connections still being sniffed or upgraded",
+                () -> MAX_PENDING_HANDSHAKES - pendingHandshakes.availablePermits());
+        this.webServer.put("/", StaticResource.ofBytes("WEB GUEST DISABELD".getBytes(StandardCharsets.UTF_8),
+                "text/html; charset=utf-8", PAGE_CACHE_CONTROL));
         if (this.mcServer.getConfig().isEnableWebGuests())
         {
             setupWebguest();
@@ -53,22 +95,26 @@ public class DualProtocolServer {
     }
 
     private void setupWebguest() throws IOException {
-        String response = new String(readBytesFromResource("/net/classicube/webclient.html"));
+        String response = new String(readBytesFromResource("/net/classicube/webclient.html"), StandardCharsets.UTF_8);
 
         String host = determineHost();
         response = response.replaceAll("\\[\\[IPADDR]]", host);
         response = response.replaceAll("\\[\\[PORT]]", String.valueOf(mcServer.getPort()));
 
-        this.webCache.put("/", new CachedResponse(response.getBytes(), "text/html"));
+        this.webServer.put("/", StaticResource.ofBytes(response.getBytes(StandardCharsets.UTF_8),
+                "text/html; charset=utf-8", PAGE_CACHE_CONTROL));
 
         File texFile = new File("webtex.zip");
-        if (texFile.exists()) {
-            this.webCache.put("/static/default.zip", new CachedResponse(readStreamFully(texFile.toURL().openStream()), "application/zip"));
-        } else {
+        if (!texFile.exists()) {
             byte[] webTex = fetchWebTex();
-            this.webCache.put("/static/default.zip", new CachedResponse(webTex, "application/zip"));
             saveWebTex(texFile, webTex);
+            if (!texFile.exists()) {
+                this.webServer.put("/static/default.zip", StaticResource.ofBytes(webTex, "application/zip", ASSET_CACHE_CONTROL));
+                return;
+            }
         }
+        // Served straight from disk, so a custom pack of any size costs no heap
+        this.webServer.put("/static/default.zip", StaticResource.ofFile(texFile.toPath(), "application/zip", ASSET_CACHE_CONTROL));
     }
 
     private String determineHost() {
@@ -102,7 +148,7 @@ public class DualProtocolServer {
             while (running) {
                 try {
                     Socket socket = serverSocket.accept();
-                    handleInitialConnection(socket);
+                    startHandshake(socket);
                 } catch (IOException e) {
                     if (running) {
                         System.err.println("Connection error: " + e.getMessage());
@@ -112,32 +158,129 @@ public class DualProtocolServer {
         }, "Connection-Listener").start();
     }
 
-    private void handleInitialConnection(Socket socket) throws IOException {
-        InputStream original = socket.getInputStream();
-        byte[] buffer = new byte[4];
-        int read = original.read(buffer, 0, 4);
-
-        if (read > 0 && buffer[0] == 'G' && buffer[1] == 'E' && buffer[2] == 'T') {
-            byte[] header = new byte[4092];
-            read = original.read(header);
-            if (read > 0) {
-                byte[] fullHeader = new byte[4 + read];
-                System.arraycopy(buffer, 0, fullHeader, 0, 4);
-                System.arraycopy(header, 0, fullHeader, 4, read);
+    private void startHandshake(Socket socket) {
+        if (!pendingHandshakes.tryAcquire()) {
+            ServerMetrics.HANDSHAKES_REJECTED.increment();
+            closeQuietly(socket);
+            return;
+        }
+        try {
+            handshakeExecutor.execute(() -> {
+                AtomicBoolean ended = new AtomicBoolean();
+                Runnable endHandshake = () -> {
+                    if (ended.compareAndSet(false, true)) {
+                        pendingHandshakes.release();
+                    }
+                };
                 try {
-                    handleWebSocketRequest(socket, new String(fullHeader));
-                } catch (NoSuchAlgorithmException e) {
-                    throw new RuntimeException(e);
+                    socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+                    handleInitialConnection(socket, endHandshake);
+                } catch (SocketTimeoutException e) {
+                    ServerMetrics.HANDSHAKES_TIMED_OUT.increment();
+                    closeQuietly(socket);
+                } catch (IOException e) {
+                    System.err.println("Connection error: " + e.getMessage());
+                    closeQuietly(socket);
+                } finally {
+                    endHandshake.run();
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            pendingHandshakes.release();
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // endHandshake gives back the pending handshake slot, for connections that stay on this
+    // thread once they've been identified
+    private void handleInitialConnection(Socket socket, Runnable endHandshake) throws IOException {
+        BufferedConnection connection = new BufferedConnection(socket);
+        byte[] buffer = new byte[3];
+        int read = connection.peek(buffer, 3);
+
+        // Classic logins start with packet id 0, HTTP requests with an upper case method name
+        if (read == 3 && buffer[0] >= 'A' && buffer[0] <= 'Z') {
+            try {
+                handleHttpConnection(connection, endHandshake);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
             }
+        } else if (read > 0) {
+            // Game connections block on reads indefinitely once they're past the handshake
+            socket.setSoTimeout(0);
+            handleTCPConnection(connection);
         } else {
-            // Create a new stream that includes the initial bytes plus remaining input
-            InputStream combined = new SequenceInputStream(
-                    new ByteArrayInputStream(Arrays.copyOf(buffer, read)),
-                    original
-            );
-            Socket wrappedSocket = new DelegatingSocket(socket, combined);
-            handleTCPConnection(wrappedSocket);
+            socket.close();
+        }
+    }
+
+    // Serves requests on one connection until the client stops asking, goes quiet for the
+    // handshake timeout or upgrades to a WebSocket, which takes the connection over
+    private void handleHttpConnection(BufferedConnection connection, Runnable endHandshake)
+            throws IOException, NoSuchAlgorithmException {
+        Socket socket = connection.getSocket();
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BufferedConnection.BUFFER_SIZE);
+        boolean upgraded = false;
+        boolean holdsHttpSlot = false;
+        try {
+            for (int served = 0; served < MAX_KEEP_ALIVE_REQUESTS; served++) {
+                HttpRequest request;
+                try {
+                    request = HttpRequest.read(connection.getInput());
+                } catch (SocketTimeoutException e) {
+                    if (served > 0) {
+                        return; // idle keep-alive connection
+                    }
+                    throw e;
+                } catch (ProtocolException e) {
+                    StaticFileServer.writeBadRequest(out);
+                    return;
+                }
+                if (request == null) {
+                    return;
+                }
+
+                if (isWebSocketUpgrade(request)) {
+                    handleWebSocketRequest(connection, request);
+                    upgraded = true; // the client handler owns the socket now
+                    return;
+                }
+                if (!holdsHttpSlot) {
+                    // Downloads can take a while, so they're counted apart from handshakes
+                    endHandshake.run();
+                    if (!httpConnections.tryAcquire()) {
+                        StaticFileServer.writeUnavailable(out);
+                        return;
+                    }
+                    holdsHttpSlot = true;
+                }
+                boolean keepAlive = request.isKeepAlive() && !request.hasBody() && served + 1 < MAX_KEEP_ALIVE_REQUESTS;
+                if (request.getPath().equals("/metrics") && mcServer.getConfig().isMetricsEnabled()) {
+                    StaticFileServer.writeResponse(out, 200, "text/plain; version=0.0.4; charset=utf-8",
+                            ServerMetrics.REGISTRY.render().getBytes(StandardCharsets.UTF_8), keepAlive,
+                            request.isHead(), "Cache-Control: no-store\r\n");
+                } else {
+                    webServer.serve(request, socket, out, keepAlive);
+                }
+                if (!keepAlive) {
+                    return;
+                }
+            }
+        } finally {
+            if (holdsHttpSlot) {
+                httpConnections.release();
+            }
+            if (!upgraded) {
+                socket.close();
+            }
         }
     }
 
@@ -164,43 +307,15 @@ public class DualProtocolServer {
         return this.serverSocket.getInetAddress().getHostAddress();
     }
 
-    private void sendResponse(Socket socket, byte[] content, String contentType) throws IOException {
-        String header = "HTTP/1.1 200 OK\r\n" +
-                "Content-Type: " + contentType + "\r\n" +
-                "Content-Length: " + content.length + "\r\n\r\n";
-        socket.getOutputStream().write(header.getBytes());
-        socket.getOutputStream().write(content);
-        socket.getOutputStream().flush();
-        socket.close();
-    }
-
-    private void handleHttpRequest(Socket socket, String path) throws IOException {
-        CachedResponse cachedResponse = webCache.get(path);
+    private void handleWebSocketRequest(BufferedConnection connection, HttpRequest request) throws IOException, NoSuchAlgorithmException {
+        Socket socket = connection.getSocket();
+        String key = request.getHeader("sec-websocket-key");
 
-        if (cachedResponse != null) {
-            sendResponse(socket, cachedResponse.getContent(), cachedResponse.getContentType());
-        }
-    }
-
-    private String getRequestedPath(String headerStr) {
-        String[] lines = headerStr.split("\r\n");
-        for (String line : lines) {
-            if (line.startsWith("GET")) {
-                return line.split(" ")[1]; // Extract the path from the GET request
-            }
-        }
-        return "";
-    }
-
-    private void handleWebSocketRequest(Socket socket, String headerStr) throws IOException, NoSuchAlgorithmException {
-        Map<String, String> headers = parseHeaders(headerStr);
-        String key = headers.get("sec-websocket-key");
-
-        // Check if it's a valid WebSocket upgrade request
-        if (!isWebSocketUpgrade(headers) || key == null) {
-            handleHttpRequest(socket, getRequestedPath(headerStr));
-            socket.close();
-            return;
+        PerMessageDeflate deflate = null;
+        Config config = mcServer.getConfig();
+        if (config.isWebSocketCompression()) {
+            deflate = PerMessageDeflate.negotiate(request.getHeader("sec-websocket-extensions"),
+                    config.getWebSocketCompressionWindowBits(), config.isWebSocketCompressionContextTakeover());
         }
 
         // Send WebSocket handshake response if it's a valid WebSocket request
@@ -209,46 +324,28 @@ public class DualProtocolServer {
                 "Upgrade: websocket\r\n" +
                 "Connection: Upgrade\r\n" +
                 "Sec-WebSocket-Accept: " + acceptKey + "\r\n" +
+                (deflate != null ? "Sec-WebSocket-Extensions: " + deflate.getResponseHeader() + "\r\n" : "") +
                 "Sec-WebSocket-Protocol: ClassiCube\r\n\r\n";
 
         socket.getOutputStream().write(response.getBytes());
 
         // Create and start the WebSocket client handler
-        WebSocketClientHandler handler = new WebSocketClientHandler(socket, mcServer);
+        WebSocketClientHandler handler = new WebSocketClientHandler(connection, mcServer, deflate);
         wsClients.put(socket, handler);
-        new Thread(handler).start();
+        new Thread(ServerMetrics.countingAllocation(handler)).start();
     }
 
-    private boolean isWebSocketUpgrade(Map<String, String> headers) {
-        return "websocket".equalsIgnoreCase(headers.get("upgrade")) &&
-                "ClassiCube".equals(headers.get("sec-websocket-protocol"));
+    private boolean isWebSocketUpgrade(HttpRequest request) {
+        return "websocket".equalsIgnoreCase(request.getHeader("upgrade")) &&
+                "ClassiCube".equals(request.getHeader("sec-websocket-protocol")) &&
+                request.getHeader("sec-websocket-key") != null;
     }
 
-    private Map<String, String> parseHeaders(String headerStr) {
-        Map<String, String> headers = new HashMap<>();
-        for (String line : headerStr.split("\r\n")) {
-            int colon = line.indexOf(": ");
-            if (colon > 0) {
-                headers.put(
-                        line.substring(0, colon).toLowerCase(),
-                        line.substring(colon + 2)
-                );
-            }
-        }
-        return headers;
-    }
 
-
-    private void handleTCPConnection(Socket socket) throws IOException {
-        if (ClientHandler.getClientCount() < mcServer.getMaxPlayers()) {
-            new Thread(new ClientHandler(socket, mcServer)).start();
-        } else {
-            try {
-                socket.close();
-            } catch (IOException e) {
-                System.err.println("Error closing rejected connection: " + e.getMessage());
-            }
-        }
+    // A full server is handled by the login pipeline's admission stage, which lets players
+    // wait in line for a slot
+    private void handleTCPConnection(BufferedConnection connection) throws IOException {
+        new Thread(ServerMetrics.countingAllocation(new ClientHandler(connection, mcServer))).start();
     }
 
     private String generateAcceptKey(String key) throws NoSuchAlgorithmException {
@@ -258,8 +355,46 @@ public class DualProtocolServer {
         return Base64.getEncoder().encodeToString(hash);
     }
 
+    // Pings every WebSocket client so dead peers hit their read timeout, and forgets
+    // connections that have already closed
+    public void pingWebSockets() {
+        // A round still running from last time is left to finish
+        if (!pinging.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            pingExecutor.execute(() -> {
+                try {
+                    Iterator<Map.Entry<Socket, WebSocketClientHandler>> iterator = wsClients.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<Socket, WebSocketClientHandler> entry = iterator.next();
+                        if (entry.getKey().isClosed()) {
+                            iterator.remove();
+                        } else {
+                            entry.getValue().sendPing();
+                        }
+                    }
+                } finally {
+                    pinging.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pinging.set(false);
+        }
+    }
+
+    // Called from a tick phase
+    public void closeStalledDownloads() {
+        int closed = webServer.closeStalledTransfers(DOWNLOAD_STALL_TIMEOUT);
+        if (closed > 0) {
+            System.out.println("Closed " + closed + " stalled web download(s)");
+        }
+    }
+
     public void stop() {
         running = false;
+        handshakeExecutor.shutdownNow();
+        pingExecutor.shutdownNow();
         try {
             serverSocket.close();
         } catch (IOException e) {
@@ -277,22 +412,4 @@ public class DualProtocolServer {
         wsClients.clear();
     }
 
-    private static class CachedResponse {
-        private final byte[] content;
-        private final String contentType;
-
-        public CachedResponse(byte[] content, String contentType) {
-            this.content = content;
-            this.contentType = contentType;
-        }
-
-        public byte[] getContent() {
-            return content;
-        }
-
-        public String getContentType() {
-            return contentType;
-        }
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,191 @@
+package net.classicube;
+
+import net.classicube.api.Timings;
+import net.classicube.metrics.ServerMetrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Fixed-rate server tick. Phases run in registration order on the tick thread and are
+// timed individually. When the loop falls behind it runs ticks back to back to catch up,
+// up to MAX_CATCH_UP_TICKS, after which the missed ticks are skipped.
+public class GameLoop {
+    private static final int MAX_CATCH_UP_TICKS = 20;
+    private static final long OVERRUN_LOG_INTERVAL = TimeUnit.SECONDS.toNanos(15);
+    private static final double AVERAGE_DECAY = Math.exp(-1.0 / 60); // one minute average over per-second samples
+
+    private final int tickRate;
+    private final long tickNanos;
+    private final List<Phase> phases = new CopyOnWriteArrayList<>();
+    private final Timings tickTimings = new Timings();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong skippedTicks = new AtomicLong();
+
+    private volatile boolean running;
+    private volatile long currentTick;
+    private volatile double currentTps;
+    private volatile double averageTps;
+    private volatile long lastTickNanos;
+    private Thread tickThread;
+    private long lastOverrunLog;
+
+    public GameLoop(int tickRate) {
+        if (tickRate <= 0) {
+            throw new IllegalArgumentException("Tick rate must be positive: " + tickRate);
+        }
+        this.tickRate = tickRate;
+        this.tickNanos = TimeUnit.SECONDS.toNanos(1) / tickRate;
+        this.currentTps = tickRate;
+        this.averageTps = tickRate;
+    }
+
+    // Runs task every interval ticks
+    public void addPhase(String name, int interval, Runnable task) {
+        phases.add(new Phase(name, Math.max(1, interval), task));
+    }
+
+    // Runs the loop on the calling thread until stop() is called
+    public void run() {
+        running = true;
+        tickThread = Thread.currentThread();
+        long nextTick = System.nanoTime();
+        long secondStart = nextTick;
+        int ticksThisSecond = 0;
+        lastOverrunLog = nextTick - OVERRUN_LOG_INTERVAL;
+
+        while (running) {
+            long now = System.nanoTime();
+            if (now < nextTick) {
+                LockSupport.parkNanos(nextTick - now);
+                continue;
+            }
+
+            long behind = (now - nextTick) / tickNanos;
+            if (behind > MAX_CATCH_UP_TICKS) {
+                skippedTicks.addAndGet(behind);
+                System.out.println("Can't keep up! Skipping " + behind + " ticks (" +
+                        TimeUnit.NANOSECONDS.toMillis(now - nextTick) + "ms behind)");
+                nextTick = now;
+            }
+
+            tick();
+            nextTick += tickNanos;
+            ticksThisSecond++;
+
+            long elapsed = System.nanoTime() - secondStart;
+            if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+                currentTps = ticksThisSecond * 1_000_000_000.0 / elapsed;
+                averageTps = averageTps * AVERAGE_DECAY + currentTps * (1 - AVERAGE_DECAY);
+                secondStart += elapsed;
+                ticksThisSecond = 0;
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        if (tickThread != null) {
+            LockSupport.unpark(tickThread);
+        }
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        long tick = ++currentTick;
+
+        for (Phase phase : phases) {
+            if (tick % phase.interval != 0) {
+                continue;
+            }
+            long phaseStart = System.nanoTime();
+            try {
+                phase.task.run();
+            } catch (VirtualMachineError e) {
+                throw e;
+            } catch (Throwable e) {
+                // Errors from plugin tasks, such as NoClassDefFoundError, must not end the loop
+                System.err.println("Error in tick phase " + phase.name + ": " + e);
+                e.printStackTrace();
+            }
+            phase.timings.record(System.nanoTime() - phaseStart);
+        }
+
+        long duration = System.nanoTime() - start;
+        lastTickNanos = duration;
+        tickTimings.record(duration);
+        ServerMetrics.TICK_TIME.record(duration);
+        if (duration > tickNanos) {
+            overruns.incrementAndGet();
+            ServerMetrics.TICK_OVERRUNS.increment();
+            if (start - lastOverrunLog > OVERRUN_LOG_INTERVAL) {
+                lastOverrunLog = start;
+                System.out.println("Tick " + tick + " took " + TimeUnit.NANOSECONDS.toMillis(duration) +
+                        "ms (budget " + TimeUnit.NANOSECONDS.toMillis(tickNanos) + "ms)");
+            }
+        }
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    public double getCurrentTps() {
+        return currentTps;
+    }
+
+    public double getAverageTps() {
+        return averageTps;
+    }
+
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    public Timings getTickTimings() {
+        return tickTimings;
+    }
+
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    public long getSkippedTicks() {
+        return skippedTicks.get();
+    }
+
+    public List<Phase> getPhases() {
+        return phases;
+    }
+
+    public static class Phase {
+        private final String name;
+        private final int interval;
+        private final Runnable task;
+        private final Timings timings = new Timings();
+
+        Phase(String name, int interval, Runnable task) {
+            this.name = name;
+            this.interval = interval;
+            this.task = task;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getInterval() {
+            return interval;
+        }
+
+        public Timings getTimings() {
+            return timings;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package net.classicube;
+
+import net.classicube.metrics.Counter;
+import net.classicube.metrics.Histogram;
+import net.classicube.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+// Login runs through a fixed series of stages, each with its own limit on how many clients
+// may be in it at once and a bounded line of clients waiting to get in. A join storm then
+// queues at whichever stage is the bottleneck, instead of every client compressing the map
+// at the same time. Clients wait on their own threads; the line is first come, first served.
+public class LoginPipeline {
+    private static final long POSITION_UPDATE_INTERVAL = 5000;
+
+    // Reading and parsing the identification packet. Nothing can be sent to the client yet,
+    // so there is no line: anything over the limit is turned away.
+    private final Stage decode;
+    // Name, verification key and ban checks
+    private final Stage auth;
+    // A player slot, held for as long as the player stays
+    private final Stage admission;
+    // Compressing and sending the map
+    private final Stage map;
+
+    public LoginPipeline(Config config) {
+        int queueLength = config.getLoginQueueLength();
+        this.decode = new Stage("decode", "Logging in", config.getLoginDecodeConcurrency(), 0);
+        this.auth = new Stage("auth", "Checking logins", config.getLoginAuthConcurrency(), queueLength);
+        this.admission = new Stage("admission", "Server is full", config.getMaxPlayers(), queueLength);
+        this.map = new Stage("map", "Sending maps", config.getLoginMapConcurrency(), queueLength);
+    }
+
+    public Stage getDecode() {
+        return decode;
+    }
+
+    public Stage getAuth() {
+        return auth;
+    }
+
+    public Stage getAdmission() {
+        return admission;
+    }
+
+    public Stage getMap() {
+        return map;
+    }
+
+    @FunctionalInterface
+    public interface QueueListener {
+        // Called on the waiting client's thread when its place in line changes, and every
+        // few seconds while it stays the same. Throwing gives up the place.
+        void queued(Stage stage, int position) throws IOException;
+    }
+
+    public static class Stage {
+        private final String name;
+        private final String description;
+        private final int concurrency;
+        private final int queueLength;
+        private final ArrayDeque<Object> line = new ArrayDeque<>();
+        private int active;
+        private final Histogram waitTime;
+        private final Histogram holdTime;
+        private final Counter rejected;
+
+        Stage(String name, String description, int concurrency, int queueLength) {
+            this.name = name;
+            this.description = description;
+            this.concurrency = Math.max(1, concurrency);
+            this.queueLength = Math.max(0, queueLength);
+            this.waitTime = ServerMetrics.REGISTRY.histogram("classic_login_wait_seconds",
+                    "Time spent in line for a login stage", 1e-9, "stage", name);
+            this.holdTime = ServerMetrics.REGISTRY.histogram("classic_login_stage_seconds",
+                    "Time spent in a login stage", 1e-9, "stage", name);
+            this.rejected = ServerMetrics.REGISTRY.counter("classic_login_rejected_total",
+                    "Logins turned away because a stage's line was full", "stage", name);
+            ServerMetrics.REGISTRY.gauge("classic_login_queued", "Clients in line for a login stage",
+                    this::getQueued, "stage", name);
+            ServerMetrics.REGISTRY.gauge("classic_login_active", "Clients in a login stage",
+                    this::getActive, "stage", name);
+        }
+
+        // Waits for room in the stage and returns a pass to close when leaving it, or null
+        // if the line is already full. The listener may be null when the client can't be
+        // told anything.
+        public Pass enter(QueueListener listener) throws IOException {
+            long start = System.nanoTime();
+            Object ticket = new Object();
+            synchronized (this) {
+                if (line.isEmpty() && active < concurrency) {
+                    active++;
+                    waitTime.record(0);
+                    return new Pass(this);
+                }
+                if (line.size() >= queueLength) {
+                    rejected.increment();
+                    return null;
+                }
+                line.addLast(ticket);
+            }
+
+            boolean entered = false;
+            try {
+                int reported = 0;
+                long reportedAt = 0;
+                while (true) {
+                    int position;
+                    synchronized (this) {
+                        if (line.peekFirst() == ticket && active < concurrency) {
+                            line.removeFirst();
+                            active++;
+                            entered = true;
+                            notifyAll(); // the next in line moves up
+                            break;
+                        }
+                        position = positionOf(ticket);
+                        long now = System.currentTimeMillis();
+                        if (position == reported && now - reportedAt < POSITION_UPDATE_INTERVAL) {
+                            wait(POSITION_UPDATE_INTERVAL - (now - reportedAt));
+                            continue;
+                        }
+                        reported = position;
+                        reportedAt = now;
+                    }
+                    // Sending can block, so it's done outside the lock
+                    if (listener != null) {
+                        listener.queued(this, position);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to " + name);
+            } finally {
+                if (!entered) {
+                    synchronized (this) {
+                        line.remove(ticket);
+                        notifyAll();
+                    }
+                }
+            }
+            waitTime.record(System.nanoTime() - start);
+            return new Pass(this);
+        }
+
+        private int positionOf(Object ticket) {
+            int position = 1;
+            for (Iterator<Object> it = line.iterator(); it.hasNext() && it.next() != ticket; ) {
+                position++;
+            }
+            return position;
+        }
+
+        private synchronized void leave(long heldNanos) {
+            active--;
+            holdTime.record(heldNanos);
+            notifyAll();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Shown to players waiting in line
+        public String getDescription() {
+            return description;
+        }
+
+        public synchronized int getQueued() {
+            return line.size();
+        }
+
+        public synchronized int getActive() {
+            return active;
+        }
+    }
+
+    // A client's place in a stage. Closing it more than once has no further effect.
+    public static class Pass implements AutoCloseable {
+        private final Stage stage;
+        private final long enteredAt = System.nanoTime();
+        private boolean closed;
+
+        private Pass(Stage stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                stage.leave(System.nanoTime() - enteredAt);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package net.classicube;
+
+import net.classicube.metrics.ServerMetrics;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Shares one upload budget between all map downloads. Each download asks for one level
+// chunk at a time through a fair lock, so concurrent downloads take turns chunk by chunk
+// instead of the first one hogging the link. Bytes sent to players already in game are
+// taken out of the budget as they go, so map downloads only use what gameplay leaves over,
+// down to a small floor that keeps them moving.
+public class MapDownloadScheduler {
+    private static final int MIN_SHARE = 10; // percent of the budget downloads always get
+    private static final long BURST_MILLIS = 250;
+
+    private final long bytesPerSecond; // 0 for no limit
+    private final ReentrantLock turn = new ReentrantLock(true);
+    private double available;
+    private double gameplayOwed; // gameplay bytes not yet taken out of the budget
+    private long refilledAt = System.nanoTime();
+    // Highest count of non-map bytes sent seen so far. Map bytes are counted just before
+    // they're written, so the difference dips briefly and only new highs are gameplay.
+    private long gameplaySeen = ServerMetrics.BYTES_SENT.get() - ServerMetrics.MAP_BYTES_SENT.get();
+
+    public MapDownloadScheduler(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    // Blocks until the budget allows bytes more of map data to be sent
+    public void acquire(int bytes) throws InterruptedIOException {
+        if (bytesPerSecond == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        turn.lock();
+        try {
+            while (true) {
+                refill(bytes);
+                if (available >= bytes) {
+                    available -= bytes;
+                    break;
+                }
+                long wait = (long) ((bytes - available) * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+                TimeUnit.NANOSECONDS.sleep(Math.max(wait, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Map download interrupted");
+        } finally {
+            turn.unlock();
+        }
+        ServerMetrics.MAP_THROTTLE.record(System.nanoTime() - start);
+    }
+
+    // Only called while holding the turn lock. The budget saves up at most a short burst,
+    // but always enough for the request at hand.
+    private void refill(int bytes) {
+        long now = System.nanoTime();
+        long gameplayTotal = ServerMetrics.BYTES_SENT.get() - ServerMetrics.MAP_BYTES_SENT.get();
+        double burst = bytesPerSecond * BURST_MILLIS / 1000.0;
+        double earned = (now - refilledAt) * (double) bytesPerSecond / TimeUnit.SECONDS.toNanos(1);
+        // Gameplay arrives in bursts, so what it used is paid back over the following
+        // refills, never more than a burst's worth and never all of what was earned
+        gameplayOwed = Math.min(burst, gameplayOwed + Math.max(0, gameplayTotal - gameplaySeen));
+        double paid = Math.min(gameplayOwed, earned * (100 - MIN_SHARE) / 100);
+        gameplayOwed -= paid;
+        available = Math.min(available + earned - paid, Math.max(burst, bytes));
+        refilledAt = now;
+        gameplaySeen = Math.max(gameplaySeen, gameplayTotal);
+    }
+}
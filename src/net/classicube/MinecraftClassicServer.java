@@ -4,29 +4,42 @@ import net.classicube.api.API;
 import net.classicube.api.CommandSender;
 import net.classicube.api.ConsoleCommandSender;
 import net.classicube.api.PluginLoader;
+import net.classicube.api.event.EventRegistry;
+import net.classicube.capture.PacketCapture;
 import net.classicube.level.LevelManager;
+import net.classicube.metrics.MetricsRegistry;
+import net.classicube.metrics.ServerMetrics;
+import net.classicube.packets.EncodedString;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Scanner;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MinecraftClassicServer {
     public static final String APP_NAME = "JavaCCRewritten";
     private static final String LEVEL_FILE = "world.dat";
     private static final long SAVE_INTERVAL = 5 * 60 * 1000; // 5 minutes
+    private static final long PHYSICS_INTERVAL = 100; // 10 physics ticks per second
     public static boolean ENABLE_HEARTBEAT;
 
     private final int port;
     private final byte protocolVersion;
     private final String serverName;
     private final String serverMotd;
+    private final EncodedString encodedServerName;
+    private final EncodedString encodedServerMotd;
     private final int maxPlayers;
     private final DualProtocolServer dualServer;
-    private final Timer autoSaveTimer;
+    private final GameLoop gameLoop;
+    private final ExecutorService autoSaveExecutor;
+    private final LoginPipeline loginPipeline;
+    private final MapDownloadScheduler mapDownloads;
+    private final AtomicBoolean autoSaveRunning = new AtomicBoolean();
     private final Config config;
     private final PlayerList banList;
     private final PlayerList opList;
@@ -36,20 +49,44 @@ public class MinecraftClassicServer {
     private HeartbeatManager heartbeatManager;
 
     public MinecraftClassicServer() throws IOException {
-        this.config = new Config();
-        this.config.loadConfig();
-        this.levelManager = new LevelManager();
+        this(loadConfig(), new LevelManager(), true);
+    }
+
+    // A server that only serves the given levels to client handlers the caller creates.
+    // It doesn't load saved levels or start the API, heartbeat or listeners, so start()
+    // can't be called on it. Used by the benchmarks.
+    public MinecraftClassicServer(Config config, LevelManager levelManager) throws IOException {
+        this(config, levelManager, false);
+    }
+
+    private MinecraftClassicServer(Config config, LevelManager levelManager, boolean listen) throws IOException {
+        this.config = config;
+        this.levelManager = levelManager;
         this.port = config.getPort();
         this.protocolVersion = 0x07;
         this.serverName = config.getServerName();
         this.serverMotd = config.getServerMotd();
+        this.encodedServerName = EncodedString.of(serverName);
+        this.encodedServerMotd = EncodedString.of(serverMotd);
         this.maxPlayers = config.getMaxPlayers();
         this.verifyPlayers = config.isVerifyPlayers();
         this.banList = new PlayerList("ban", "banlist.txt");
         this.opList = new PlayerList("admin", "oplist.txt");
-        ENABLE_HEARTBEAT = config.isEnableHeartbeat();
-        this.autoSaveTimer = new Timer("LevelAutoSave", true);
+        this.gameLoop = new GameLoop(config.getTickRate());
+        this.loginPipeline = new LoginPipeline(config);
+        this.mapDownloads = new MapDownloadScheduler(config.getMapDownloadRate());
+        this.autoSaveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LevelAutoSave");
+            thread.setDaemon(true);
+            return thread;
+        });
         this.isRunning = false;
+        if (!listen) {
+            this.dualServer = null;
+            return;
+        }
+        ENABLE_HEARTBEAT = config.isEnableHeartbeat();
+        PacketCapture.setEnabled(config.isPacketCapture());
         setupHeartbeat();
         loadAllLevels();
         createMainLevel();
@@ -57,10 +94,24 @@ public class MinecraftClassicServer {
         this.dualServer = new DualProtocolServer(this, port);
     }
 
+    private static Config loadConfig() {
+        Config config = new Config();
+        config.loadConfig();
+        return config;
+    }
+
     public Config getConfig() {
         return config;
     }
 
+    public LoginPipeline getLoginPipeline() {
+        return loginPipeline;
+    }
+
+    public MapDownloadScheduler getMapDownloads() {
+        return mapDownloads;
+    }
+
     public static void main(String[] args) throws IOException {
         MinecraftClassicServer server = new MinecraftClassicServer();
         server.start();
@@ -119,28 +170,52 @@ public class MinecraftClassicServer {
         System.out.println("Maximum players: " + maxPlayers);
         System.out.println("Type 'help' for available commands");
 
-        setupAutoSave();
+        setupTickPhases();
+        registerMetrics();
         startCommandReader();
 
-        // Wait for stop command
-        while (isRunning) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                if (isRunning) {
-                    System.out.println("Server interrupted: " + e.getMessage());
-                }
-            }
-        }
+        // Run ticks on this thread until the stop command
+        gameLoop.run();
     }
 
-    private void setupAutoSave() {
-        autoSaveTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                saveLevel();
+    private void setupTickPhases() {
+        gameLoop.addPhase("tasks", 1, API.getInstance().getScheduler()::tick);
+        gameLoop.addPhase("movement", 1, ClientHandler::broadcastMovement);
+        gameLoop.addPhase("physics", ticksFor(PHYSICS_INTERVAL), () -> {
+            if (config.isPhysicsEnabled()) {
+                levelManager.tickPhysics(config.getPhysicsUpdatesPerTick());
+            }
+        });
+        gameLoop.addPhase("keepalive", ticksFor(WebSocketClientHandler.PING_INTERVAL), dualServer::pingWebSockets);
+        gameLoop.addPhase("downloads", ticksFor(DualProtocolServer.STALL_CHECK_INTERVAL), dualServer::closeStalledDownloads);
+        // Saving is slow disk I/O, so the tick only starts it
+        gameLoop.addPhase("autosave", ticksFor(SAVE_INTERVAL), () -> {
+            if (autoSaveRunning.compareAndSet(false, true)) {
+                autoSaveExecutor.execute(() -> {
+                    try {
+                        saveLevel();
+                    } finally {
+                        autoSaveRunning.set(false);
+                    }
+                });
             }
-        }, SAVE_INTERVAL, SAVE_INTERVAL);
+        });
+    }
+
+    private void registerMetrics() {
+        MetricsRegistry registry = ServerMetrics.REGISTRY;
+        registry.gauge("classic_tps", "Ticks per second over the last second", gameLoop::getCurrentTps);
+        registry.gauge("classic_tps_average", "Ticks per second averaged over one minute", gameLoop::getAverageTps);
+        registry.gauge("classic_physics_pending_updates", "Block updates waiting in physics queues",
+                levelManager::getPendingPhysicsUpdates);
+        registry.gauge("classic_async_event_queue_depth", "Events waiting for async listeners",
+                EventRegistry::getAsyncQueueDepth);
+        registry.gauge("classic_scheduled_tasks", "Active plugin tasks",
+                API.getInstance().getScheduler()::getActiveTaskCount);
+    }
+
+    private int ticksFor(long intervalMillis) {
+        return (int) Math.max(1, intervalMillis * gameLoop.getTickRate() / 1000);
     }
 
     private void startCommandReader() {
@@ -163,13 +238,16 @@ public class MinecraftClassicServer {
     public void stop() {
         System.out.println("Stopping server...");
         isRunning = false;
-        autoSaveTimer.cancel();
+        gameLoop.stop();
+        autoSaveExecutor.shutdown();
 
         if (heartbeatManager != null) {
             heartbeatManager.stop();
         }
 
+        EventRegistry.shutdownAsync(5000);
         API.getInstance().getPluginLoader().disablePlugins();
+        API.getInstance().getScheduler().shutdown();
         System.out.println("Saving level before shutdown...");
         saveLevel();
 
@@ -199,6 +277,7 @@ public class MinecraftClassicServer {
         config.loadConfig();
         verifyPlayers = config.isVerifyPlayers();
         ENABLE_HEARTBEAT = config.isEnableHeartbeat();
+        PacketCapture.setEnabled(config.isPacketCapture());
 
         if (ENABLE_HEARTBEAT && heartbeatManager == null) {
             heartbeatManager = new HeartbeatManager(this);
@@ -215,6 +294,10 @@ public class MinecraftClassicServer {
     }
 
     // Getters
+    public GameLoop getGameLoop() {
+        return gameLoop;
+    }
+
     public LevelManager getLevelManager() {
         return levelManager;
     }
@@ -227,6 +310,14 @@ public class MinecraftClassicServer {
         return serverMotd;
     }
 
+    public EncodedString getEncodedServerName() {
+        return encodedServerName;
+    }
+
+    public EncodedString getEncodedServerMotd() {
+        return encodedServerMotd;
+    }
+
     public byte getProtocolVersion() {
         return protocolVersion;
     }
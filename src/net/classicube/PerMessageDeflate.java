@@ -0,0 +1,214 @@
+package net.classicube;
+
+import net.classicube.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// The permessage-deflate WebSocket extension (RFC 7692) for one connection. The Deflater
+// and Inflater live as long as the connection so each message can refer back to earlier
+// ones, unless context takeover was turned off during negotiation. The connection may be
+// closed from another thread, so the zlib state is only touched under this object's lock.
+public class PerMessageDeflate {
+    public static final String EXTENSION_NAME = "permessage-deflate";
+    private static final int MAX_WINDOW_BITS = 15;
+    private static final int MIN_WINDOW_BITS = 8;
+    private static final int MAX_MESSAGE_LENGTH = 1 << 20;
+    private static final byte[] TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+    private final boolean serverContextTakeover;
+    private final boolean clientContextTakeover;
+    private final int clientWindowBits; // 0 when the client didn't offer client_max_window_bits
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    private byte[] deflated = new byte[1024];
+    private byte[] inflated = new byte[4096];
+    private long bytesBefore;
+    private long bytesAfter;
+    private boolean ended;
+
+    private PerMessageDeflate(boolean serverContextTakeover, boolean clientContextTakeover, int clientWindowBits) {
+        this.serverContextTakeover = serverContextTakeover;
+        this.clientContextTakeover = clientContextTakeover;
+        this.clientWindowBits = clientWindowBits;
+    }
+
+    // Accepts the first permessage-deflate offer in a Sec-WebSocket-Extensions header that
+    // this server can honour, or returns null. The JDK's Deflater always uses a 32 KiB
+    // window, so offers limiting server_max_window_bits are declined; the configured
+    // window bits are passed on to the client instead.
+    public static PerMessageDeflate negotiate(String header, int windowBits, boolean contextTakeover) {
+        if (header == null) {
+            return null;
+        }
+        windowBits = Math.max(MIN_WINDOW_BITS, Math.min(MAX_WINDOW_BITS, windowBits));
+        for (String offer : header.split(",")) {
+            PerMessageDeflate accepted = accept(offer.split(";"), windowBits, contextTakeover);
+            if (accepted != null) {
+                return accepted;
+            }
+        }
+        return null;
+    }
+
+    private static PerMessageDeflate accept(String[] offer, int windowBits, boolean contextTakeover) {
+        if (!offer[0].trim().equalsIgnoreCase(EXTENSION_NAME)) {
+            return null;
+        }
+        boolean serverTakeover = contextTakeover;
+        boolean clientTakeover = true;
+        int clientBits = 0;
+        for (int i = 1; i < offer.length; i++) {
+            String parameter = offer[i].trim();
+            String value = null;
+            int equals = parameter.indexOf('=');
+            if (equals >= 0) {
+                value = parameter.substring(equals + 1).trim().replace("\"", "");
+                parameter = parameter.substring(0, equals).trim();
+            }
+            switch (parameter.toLowerCase()) {
+                case "server_no_context_takeover":
+                    serverTakeover = false;
+                    break;
+                case "client_no_context_takeover":
+                    clientTakeover = false;
+                    break;
+                case "server_max_window_bits":
+                    if (parseWindowBits(value) != MAX_WINDOW_BITS) {
+                        return null;
+                    }
+                    break;
+                case "client_max_window_bits":
+                    int offered = value == null ? MAX_WINDOW_BITS : parseWindowBits(value);
+                    if (offered < 0) {
+                        return null;
+                    }
+                    clientBits = Math.min(offered, windowBits);
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return new PerMessageDeflate(serverTakeover, clientTakeover, clientBits);
+    }
+
+    private static int parseWindowBits(String value) {
+        try {
+            int bits = Integer.parseInt(value);
+            return bits >= MIN_WINDOW_BITS && bits <= MAX_WINDOW_BITS ? bits : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Value for the Sec-WebSocket-Extensions response header
+    public String getResponseHeader() {
+        StringBuilder response = new StringBuilder(EXTENSION_NAME);
+        if (!serverContextTakeover) {
+            response.append("; server_no_context_takeover");
+        }
+        if (!clientContextTakeover) {
+            response.append("; client_no_context_takeover");
+        }
+        if (clientWindowBits > 0) {
+            response.append("; client_max_window_bits=").append(clientWindowBits);
+        }
+        return response.toString();
+    }
+
+    // Compresses one message into getDeflated(), after headerRoom free bytes for the frame
+    // header, and returns the end of the compressed data
+    public synchronized int deflate(byte[] data, int offset, int length, int headerRoom) throws IOException {
+        ensureOpen();
+        deflater.setInput(data, offset, length);
+        int end = headerRoom;
+        while (true) {
+            if (end == deflated.length) {
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            }
+            end += deflater.deflate(deflated, end, deflated.length - end, Deflater.SYNC_FLUSH);
+            // A sync flush is complete once it stops filling the buffer
+            if (end < deflated.length) {
+                break;
+            }
+        }
+        // Every message ends with the flush marker, which the receiver adds back
+        end -= TAIL.length;
+        if (!serverContextTakeover) {
+            deflater.reset();
+        }
+        bytesBefore += length;
+        bytesAfter += end - headerRoom;
+        ServerMetrics.WEBSOCKET_DEFLATE_INPUT.add(length);
+        ServerMetrics.WEBSOCKET_DEFLATE_OUTPUT.add(end - headerRoom);
+        return end;
+    }
+
+    public byte[] getDeflated() {
+        return deflated;
+    }
+
+    // Decompresses one frame of a compressed message into getInflated() and returns the
+    // number of bytes produced
+    public synchronized int inflate(byte[] data, int offset, int length, boolean lastFrame) throws IOException {
+        ensureOpen();
+        int end = inflate(data, offset, length, 0);
+        if (lastFrame) {
+            end = inflate(TAIL, 0, TAIL.length, end);
+            if (!clientContextTakeover) {
+                inflater.reset();
+            }
+        }
+        return end;
+    }
+
+    private int inflate(byte[] data, int offset, int length, int end) throws IOException {
+        inflater.setInput(data, offset, length);
+        try {
+            while (true) {
+                if (end == inflated.length) {
+                    if (inflated.length >= MAX_MESSAGE_LENGTH) {
+                        throw new IOException("Inflated WebSocket message too large");
+                    }
+                    inflated = Arrays.copyOf(inflated, inflated.length * 2);
+                }
+                end += inflater.inflate(inflated, end, inflated.length - end);
+                if (end < inflated.length) {
+                    return end;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed WebSocket message: " + e.getMessage());
+        }
+    }
+
+    public byte[] getInflated() {
+        return inflated;
+    }
+
+    public long getBytesBefore() {
+        return bytesBefore;
+    }
+
+    public long getBytesAfter() {
+        return bytesAfter;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (ended) {
+            throw new IOException("WebSocket compression already ended");
+        }
+    }
+
+    // Frees the native zlib state
+    public synchronized void end() {
+        if (!ended) {
+            ended = true;
+            deflater.end();
+            inflater.end();
+        }
+    }
+}
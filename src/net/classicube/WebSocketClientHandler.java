@@ -1,17 +1,41 @@
 package net.classicube;
 
+import net.classicube.metrics.CountingOutputStream;
+import net.classicube.metrics.ServerMetrics;
+
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class WebSocketClientHandler extends ClientHandler {
+    public static final long PING_INTERVAL = 15 * 1000;
+    private static final int READ_TIMEOUT = 45 * 1000; // three missed pings
+    private static final int MAX_CONTROL_LENGTH = 125;
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+    private static final int CLOSE_NORMAL = 1000;
+    private static final int CLOSE_PROTOCOL_ERROR = 1002;
+    private static final int CLOSE_TOO_BIG = 1009;
+
     private final BlockingQueue<byte[]> messageQueue = new ArrayBlockingQueue<>(1024);
     private WebSocketInputStream wsInput;
+    private WebSocketOutputStream wsOutput;
+    private PerMessageDeflate deflate;
 
-    public WebSocketClientHandler(Socket socket, MinecraftClassicServer server) throws IOException {
-        super(socket, server);
-        setupStreams();
+    // deflate is null unless permessage-deflate was negotiated in the handshake
+    public WebSocketClientHandler(BufferedConnection connection, MinecraftClassicServer server, PerMessageDeflate deflate) throws IOException {
+        super(connection, server);
+        this.deflate = deflate;
+        this.wsInput.deflate = deflate;
+        this.wsOutput.deflate = deflate;
     }
 
     private static String bytesToHex(byte[] bytes) {
@@ -25,94 +49,253 @@ public class WebSocketClientHandler extends ClientHandler {
     @Override
     protected void setupStreams() {
         try {
-            this.wsInput = new WebSocketInputStream(this.socket.getInputStream());
+            // Pings keep live peers talking, so a read that times out means the peer is gone
+            this.socket.setSoTimeout(READ_TIMEOUT);
+            this.wsOutput = new WebSocketOutputStream(
+                    new CountingOutputStream(this.socket.getOutputStream(), ServerMetrics.BYTES_SENT));
+            this.wsInput = new WebSocketInputStream(this.socketInput, wsOutput);
             this.in = new DataInputStream(this.wsInput);
-            this.out = new DataOutputStream(new WebSocketOutputStream(this.socket.getOutputStream()));
+            this.out = new DataOutputStream(this.wsOutput);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
     }
 
-    private class WebSocketInputStream extends InputStream {
+    @Override
+    protected void flushOutput(boolean precompressed) throws IOException {
+        wsOutput.flush(!precompressed);
+    }
+
+    // Called from the ping thread. Skipped while another thread is writing, since the
+    // connection is busy anyway and waiting could take as long as a stalled peer likes.
+    public void sendPing() {
+        if (socket.isClosed()) {
+            return;
+        }
+        try {
+            wsOutput.tryWriteControlFrame(OPCODE_PING, new byte[0], 0);
+        } catch (IOException e) {
+            // The read side notices the broken connection and disconnects
+        }
+    }
+
+    @Override
+    protected void closeResources() {
+        if (wsOutput != null && !socket.isClosed()) {
+            try {
+                wsOutput.writeClose(CLOSE_NORMAL);
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        super.closeResources();
+        if (deflate != null) {
+            deflate.end();
+            long before = deflate.getBytesBefore();
+            if (before > 0) {
+                System.out.printf("WebSocket compression for %s: %d -> %d bytes (%.1f%% saved)%n",
+                        getUsername() != null ? getUsername() : "unknown", before, deflate.getBytesAfter(),
+                        100.0 * (before - deflate.getBytesAfter()) / before);
+            }
+        }
+    }
+
+    // Reads the payload of binary, text and continuation frames as one byte stream. Frames
+    // are read into a reusable buffer and unmasked eight bytes at a time, then inflated if
+    // the message is compressed. Pings are answered as they arrive, and a close frame is
+    // echoed before the stream reports end of file.
+    private static class WebSocketInputStream extends InputStream {
+        private static final int MAX_FRAME_LENGTH = 65536;
+
         private final InputStream source;
-        private ByteArrayInputStream buffer;
-        private boolean isMasked;
-        private byte[] maskKey;
-        private int payloadLength;
+        private final WebSocketOutputStream output;
+        private final byte[] header = new byte[8];
+        private final byte[] control = new byte[MAX_CONTROL_LENGTH];
+        private final ByteBuffer controlView = ByteBuffer.wrap(control);
+        private byte[] payload = new byte[4096];
+        private ByteBuffer payloadView = ByteBuffer.wrap(payload);
+        private byte[] current = payload; // the raw or inflated bytes being read
+        private int position;
+        private int limit;
+        private boolean inMessage; // a fragmented message is waiting for continuation frames
+        private boolean compressedMessage;
+        private PerMessageDeflate deflate;
 
-        public WebSocketInputStream(InputStream source) {
+        public WebSocketInputStream(InputStream source, WebSocketOutputStream output) {
             this.source = source;
+            this.output = output;
         }
 
         @Override
         public int read() throws IOException {
-            if (buffer == null || buffer.available() == 0) {
+            while (position == limit) {
                 readFrame();
             }
-            return buffer != null ? buffer.read() : -1;
+            return current[position++] & 0xFF;
         }
 
         @Override
         public int read(byte[] b, int off, int len) throws IOException {
-            if (buffer == null || buffer.available() == 0) {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == limit) {
                 readFrame();
             }
-            return buffer != null ? buffer.read(b, off, len) : -1;
+            int count = Math.min(len, limit - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
         }
 
-        private void readFrame() throws IOException {
-            int firstByte = source.read();
-            if (firstByte == -1) throw new EOFException();
-
-            boolean isFinal = (firstByte & 0x80) != 0;
-            int opcode = firstByte & 0x0F;
-
-            int secondByte = source.read();
-            if (secondByte == -1) throw new EOFException();
+        @Override
+        public int available() {
+            return limit - position;
+        }
 
-            isMasked = (secondByte & 0x80) != 0;
-            payloadLength = secondByte & 0x7F;
+        private void readFrame() throws IOException {
+            try {
+                readFully(header, 2);
+            } catch (SocketTimeoutException e) {
+                throw new SocketTimeoutException("No WebSocket traffic for " + READ_TIMEOUT / 1000 + " seconds");
+            }
+            boolean fin = (header[0] & 0x80) != 0;
+            int opcode = header[0] & 0x0F;
+            boolean compressed = (header[0] & 0x40) != 0; // RSV1 marks a deflated message
+            boolean masked = (header[1] & 0x80) != 0;
+            long length = header[1] & 0x7F;
+            if ((header[0] & 0x30) != 0) {
+                throw protocolError("reserved bits set");
+            }
+            if (compressed && (deflate == null || opcode == OPCODE_CONTINUATION || opcode >= OPCODE_CLOSE)) {
+                throw protocolError("unexpected compression bit");
+            }
+            if (!masked) {
+                throw protocolError("unmasked client frame");
+            }
+            if (length == 126) {
+                readFully(header, 2);
+                length = ((header[0] & 0xFF) << 8) | (header[1] & 0xFF);
+            } else if (length == 127) {
+                readFully(header, 8);
+                length = ByteBuffer.wrap(header).getLong();
+            }
+            readFully(header, 4);
+            int mask = ByteBuffer.wrap(header).getInt();
 
-            if (payloadLength == 126) {
-                payloadLength = (source.read() << 8) | source.read();
-            } else if (payloadLength == 127) {
-                payloadLength = 0;
-                for (int i = 0; i < 8; i++) {
-                    payloadLength = (payloadLength << 8) | source.read();
+            if (opcode >= OPCODE_CLOSE) {
+                if (!fin || length > MAX_CONTROL_LENGTH) {
+                    throw protocolError("fragmented or oversized control frame");
                 }
+                int size = (int) length;
+                readFully(control, size);
+                unmask(control, controlView, size, mask);
+                handleControlFrame(opcode, size);
+                return;
             }
 
-            if (isMasked) {
-                maskKey = new byte[4];
-                source.read(maskKey, 0, 4);
+            if (opcode == OPCODE_CONTINUATION) {
+                if (!inMessage) {
+                    throw protocolError("continuation frame without a message");
+                }
+            } else if (opcode == OPCODE_TEXT || opcode == OPCODE_BINARY) {
+                if (inMessage) {
+                    throw protocolError("new message before the last one finished");
+                }
+                compressedMessage = compressed;
+            } else {
+                throw protocolError("unknown opcode " + opcode);
+            }
+            if (length < 0 || length > MAX_FRAME_LENGTH) {
+                output.writeClose(CLOSE_TOO_BIG);
+                throw new IOException("WebSocket frame too large: " + length + " bytes");
             }
+            inMessage = !fin;
 
-            byte[] payload = new byte[payloadLength];
-            int bytesRead = 0;
-            while (bytesRead < payloadLength) {
-                int read = source.read(payload, bytesRead, payloadLength - bytesRead);
-                if (read == -1) throw new EOFException();
-                bytesRead += read;
+            int size = (int) length;
+            if (size > payload.length) {
+                payload = new byte[Math.max(size, payload.length * 2)];
+                payloadView = ByteBuffer.wrap(payload);
+            }
+            readFully(payload, size);
+            unmask(payload, payloadView, size, mask);
+            position = 0;
+            if (compressedMessage) {
+                limit = deflate.inflate(payload, 0, size, fin);
+                current = deflate.getInflated();
+            } else {
+                limit = size;
+                current = payload;
             }
+        }
 
-            if (isMasked) {
-                for (int i = 0; i < payload.length; i++) {
-                    payload[i] ^= maskKey[i % 4];
-                }
+        private void handleControlFrame(int opcode, int size) throws IOException {
+            switch (opcode) {
+                case OPCODE_CLOSE:
+                    if (size == 1) {
+                        throw protocolError("truncated close status");
+                    }
+                    // Echo the client's status code to complete the handshake
+                    output.writeControlFrame(OPCODE_CLOSE, control, Math.min(size, 2));
+                    throw new EOFException("WebSocket closed by client");
+                case OPCODE_PING:
+                    output.writeControlFrame(OPCODE_PONG, control, size);
+                    break;
+                case OPCODE_PONG:
+                    // Only resets the read timeout
+                    break;
+                default:
+                    throw protocolError("unknown opcode " + opcode);
             }
+        }
+
+        private IOException protocolError(String message) throws IOException {
+            output.writeClose(CLOSE_PROTOCOL_ERROR);
+            return new IOException("WebSocket protocol error: " + message);
+        }
 
-            buffer = new ByteArrayInputStream(payload);
+        private static void unmask(byte[] buffer, ByteBuffer view, int size, int mask) {
+            long wideMask = ((long) mask << 32) | (mask & 0xFFFFFFFFL);
+            int i = 0;
+            for (; i + 8 <= size; i += 8) {
+                view.putLong(i, view.getLong(i) ^ wideMask);
+            }
+            for (; i < size; i++) {
+                buffer[i] ^= (byte) (mask >>> (24 - 8 * (i & 3)));
+            }
+        }
 
-            if (!isFinal) {
-                readFrame(); // Handle continuation frames
+        private void readFully(byte[] buffer, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                int read = source.read(buffer, offset, length - offset);
+                if (read == -1) {
+                    throw new EOFException();
+                }
+                offset += read;
             }
         }
     }
 
-    private class WebSocketOutputStream extends OutputStream {
+    // Collects writes into one binary frame per flush. The payload is buffered after
+    // room for the largest header, so the header goes in front of it and the whole
+    // frame reaches the socket in one write, without copying or allocating. Control
+    // frames come from other threads, so every socket write holds the stream's lock and
+    // they only ever land between whole data frames. Nothing is sent after a close frame.
+    // With permessage-deflate each frame is a compressed message, unless it was flushed
+    // as already compressed, like the gzipped level chunks.
+    private static class WebSocketOutputStream extends OutputStream {
+        private static final int MAX_HEADER_LENGTH = 4; // payloads stay under 64 KiB
+        private static final int MAX_PAYLOAD_LENGTH = 16384;
+
         private final OutputStream source;
-        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final byte[] frame = new byte[MAX_HEADER_LENGTH + MAX_PAYLOAD_LENGTH];
+        private final byte[] controlFrame = new byte[2 + MAX_CONTROL_LENGTH];
+        private final ReentrantLock lock = new ReentrantLock();
+        private int end = MAX_HEADER_LENGTH;
+        private boolean closeSent;
+        private PerMessageDeflate deflate;
 
         public WebSocketOutputStream(OutputStream source) {
             this.source = source;
@@ -120,43 +303,123 @@ public class WebSocketClientHandler extends ClientHandler {
 
         @Override
         public void write(int b) throws IOException {
-            buffer.write(b);
+            if (end == frame.length) {
+                writeFrame(true);
+            }
+            frame[end++] = (byte) b;
         }
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
-            buffer.write(b, off, len);
+            while (len > 0) {
+                if (end == frame.length) {
+                    writeFrame(true);
+                }
+                int count = Math.min(len, frame.length - end);
+                System.arraycopy(b, off, frame, end, count);
+                end += count;
+                off += count;
+                len -= count;
+            }
         }
 
         @Override
         public void flush() throws IOException {
-            byte[] data = buffer.toByteArray();
-            if (data.length > 0) {
-                sendWebSocketFrame(data);
-                buffer.reset();
+            flush(true);
+        }
+
+        // compress is false for a payload that is compressed already
+        void flush(boolean compress) throws IOException {
+            lock.lock();
+            try {
+                writeFrame(compress);
+                source.flush();
+            } finally {
+                lock.unlock();
             }
         }
 
-        private void sendWebSocketFrame(byte[] payload) throws IOException {
-            ByteArrayOutputStream frame = new ByteArrayOutputStream();
-            frame.write(0x82); // Binary frame, FIN=1
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
 
-            if (payload.length < 126) {
-                frame.write(payload.length);
-            } else if (payload.length < 65536) {
-                frame.write(126);
-                frame.write((payload.length >> 8) & 0xFF);
-                frame.write(payload.length & 0xFF);
-            } else {
-                frame.write(127);
-                for (int i = 7; i >= 0; i--) {
-                    frame.write((payload.length >> (8 * i)) & 0xFF);
-                }
+        void writeControlFrame(int opcode, byte[] data, int length) throws IOException {
+            lock.lock();
+            try {
+                writeControlFrameLocked(opcode, data, length);
+            } finally {
+                lock.unlock();
             }
+        }
+
+        // Returns false without writing if another thread holds the lock
+        boolean tryWriteControlFrame(int opcode, byte[] data, int length) throws IOException {
+            if (!lock.tryLock()) {
+                return false;
+            }
+            try {
+                writeControlFrameLocked(opcode, data, length);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
 
-            frame.write(payload);
-            source.write(frame.toByteArray());
+        private void writeControlFrameLocked(int opcode, byte[] data, int length) throws IOException {
+            if (closeSent) {
+                return;
+            }
+            closeSent = opcode == OPCODE_CLOSE;
+            controlFrame[0] = (byte) (0x80 | opcode);
+            controlFrame[1] = (byte) length;
+            System.arraycopy(data, 0, controlFrame, 2, length);
+            source.write(controlFrame, 0, 2 + length);
             source.flush();
         }
+
+        void writeClose(int status) throws IOException {
+            writeControlFrame(OPCODE_CLOSE, new byte[]{(byte) (status >> 8), (byte) status}, 2);
+        }
+
+        private void writeFrame(boolean compress) throws IOException {
+            lock.lock();
+            try {
+                int length = end - MAX_HEADER_LENGTH;
+                if (length == 0) {
+                    return;
+                }
+                if (closeSent) {
+                    end = MAX_HEADER_LENGTH;
+                    return;
+                }
+                if (deflate != null && compress) {
+                    int compressedEnd = deflate.deflate(frame, MAX_HEADER_LENGTH, length, MAX_HEADER_LENGTH);
+                    writeWithHeader(deflate.getDeflated(), compressedEnd, 0xC2); // Binary frame, FIN=1, RSV1=1
+                } else {
+                    writeWithHeader(frame, end, 0x82); // Binary frame, FIN=1
+                }
+                end = MAX_HEADER_LENGTH;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Fills in the header before a payload that starts at MAX_HEADER_LENGTH and writes the frame
+        private void writeWithHeader(byte[] buffer, int payloadEnd, int first) throws IOException {
+            int length = payloadEnd - MAX_HEADER_LENGTH;
+            int start;
+            if (length < 126) {
+                start = MAX_HEADER_LENGTH - 2;
+                buffer[start + 1] = (byte) length;
+            } else {
+                start = 0;
+                buffer[1] = 126;
+                buffer[2] = (byte) (length >> 8);
+                buffer[3] = (byte) length;
+            }
+            buffer[start] = (byte) first;
+            source.write(buffer, start, payloadEnd - start);
+        }
     }
-}
\ No newline at end of file
+}
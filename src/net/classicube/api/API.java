@@ -1,18 +1,26 @@
 package net.classicube.api;
 
 import net.classicube.ClientHandler;
+import net.classicube.GameLoop;
 import net.classicube.MinecraftClassicServer;
 import net.classicube.api.enums.BlockType;
 import net.classicube.api.enums.ChatColors;
 import net.classicube.api.enums.EnvColorType;
+import net.classicube.api.event.EventRegistry;
+import net.classicube.api.event.RegisteredListener;
+import net.classicube.capture.PacketCapture;
+import net.classicube.jfr.FlightRecording;
+import net.classicube.level.BlockPhysics;
 import net.classicube.level.Level;
 import net.classicube.level.LevelManager;
+import net.classicube.metrics.ServerMetrics;
 import net.classicube.packets.MessagePacket;
 import net.classicube.packets.cpe.EnvColorsPacket;
 import net.classicube.packets.cpe.MakeSelectionPacket;
 
 import java.awt.*;
 import java.io.IOException;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -26,6 +34,7 @@ public class API {
     private final MinecraftClassicServer server;
     private final CommandRegistry commandRegistry;
     private final PluginLoader pluginLoader;
+    private final Scheduler scheduler;
 
     private API(MinecraftClassicServer server) {
         if (instance != null) {
@@ -34,6 +43,7 @@ public class API {
         this.server = server;
         this.commandRegistry = new CommandRegistry();
         this.pluginLoader = new PluginLoader();
+        this.scheduler = new Scheduler();
         registerDefaultCommands();
 
     }
@@ -229,6 +239,113 @@ public class API {
             return "Current players: " + ClientHandler.getClientCount() + "/" + server.getMaxPlayers();
         });
 
+        commandRegistry.registerCommand("physics", false, (sender, args) -> {
+            LevelManager levelManager = server.getLevelManager();
+            StringBuilder stats = new StringBuilder("Physics:");
+            for (String name : levelManager.getLevelNames()) {
+                BlockPhysics physics = levelManager.getLevel(name).getPhysics();
+                stats.append("\n").append(name)
+                        .append(": pending ").append(physics.getPendingUpdates())
+                        .append(", last tick ").append(physics.getLastTickUpdates()).append(" updates/")
+                        .append(physics.getLastTickChanges()).append(" changes in ")
+                        .append(String.format("%.2f", physics.getLastTickNanos() / 1_000_000.0)).append("ms")
+                        .append(", total ").append(physics.getTotalUpdates());
+            }
+            return stats.toString();
+        });
+
+        commandRegistry.registerCommand("events", true, (sender, args) -> {
+            StringBuilder stats = new StringBuilder("Async event queue: " + EventRegistry.getAsyncQueueDepth()
+                    + ", dropped " + ServerMetrics.ASYNC_EVENTS_DROPPED.get());
+            for (RegisteredListener listener : EventRegistry.getRegisteredListeners()) {
+                if (!listener.isAsync()) {
+                    continue;
+                }
+                Timings latency = listener.getAsyncLatency();
+                stats.append("\n").append(listener.getName())
+                        .append(": ").append(latency.getCount()).append(" events, avg ")
+                        .append(String.format("%.2f", latency.getAverageNanos() / 1_000_000.0)).append("ms, max ")
+                        .append(String.format("%.2f", latency.getMaxNanos() / 1_000_000.0)).append("ms");
+            }
+            return stats.toString();
+        });
+
+        commandRegistry.registerCommand("timings", true, (sender, args) -> {
+            TimingsReport report = new TimingsReport(commandRegistry);
+            String action = args.length > 0 ? args[0].toLowerCase() : "";
+            switch (action) {
+                case "":
+                    return report.summary(5);
+                case "on":
+                    Timings.setEnabled(true);
+                    return "Timings enabled";
+                case "off":
+                    Timings.setEnabled(false);
+                    return "Timings disabled";
+                case "reset":
+                    report.reset();
+                    return "Timings reset";
+                case "dump":
+                    return "Timings written to " + report.dump();
+                default:
+                    return "Usage: /timings [on|off|reset|dump]";
+            }
+        });
+
+        commandRegistry.registerCommand("capture", true, (sender, args) -> {
+            String action = args.length > 0 ? args[0].toLowerCase() : "status";
+            switch (action) {
+                case "on":
+                    PacketCapture.setEnabled(true);
+                    return "Packet capture enabled for new sessions";
+                case "off":
+                    PacketCapture.setEnabled(false);
+                    return "Packet capture disabled";
+                case "status":
+                    return "Packet capture is " + (PacketCapture.isEnabled() ? "on" : "off");
+                default:
+                    return "Usage: /capture [on|off|status]";
+            }
+        });
+
+        commandRegistry.registerCommand("jfr", true, (sender, args) -> {
+            String action = args.length > 0 ? args[0].toLowerCase() : "";
+            try {
+                switch (action) {
+                    case "start":
+                        String settings = args.length > 1 ? args[1] : "default";
+                        FlightRecording.start(settings);
+                        return "Flight recording started with " + settings + " settings";
+                    case "stop":
+                        return "Flight recording written to " + FlightRecording.stop();
+                    case "status":
+                        return FlightRecording.isRecording() ? "Flight recording is running" : "No flight recording is running";
+                    default:
+                        return "Usage: /jfr <start [default|profile]|stop|status>";
+                }
+            } catch (IllegalStateException e) {
+                return e.getMessage();
+            } catch (ParseException e) {
+                return "Invalid recording settings: " + e.getMessage();
+            }
+        });
+
+        commandRegistry.registerCommand("tps", false, (sender, args) -> {
+            GameLoop gameLoop = server.getGameLoop();
+            Timings tickTimings = gameLoop.getTickTimings();
+            StringBuilder stats = new StringBuilder(String.format(
+                    "TPS: %.1f (1m avg %.1f, target %d)\nTick: avg %.2fms, max %.2fms, %d overruns, %d skipped",
+                    gameLoop.getCurrentTps(), gameLoop.getAverageTps(), gameLoop.getTickRate(),
+                    tickTimings.getAverageNanos() / 1_000_000.0, tickTimings.getMaxNanos() / 1_000_000.0,
+                    gameLoop.getOverruns(), gameLoop.getSkippedTicks()));
+            for (GameLoop.Phase phase : gameLoop.getPhases()) {
+                Timings timings = phase.getTimings();
+                stats.append(String.format("\n%s: avg %.2fms, max %.2fms",
+                        phase.getName(), timings.getAverageNanos() / 1_000_000.0, timings.getMaxNanos() / 1_000_000.0));
+            }
+            return stats.toString();
+        });
+
         commandRegistry.registerCommand("op", true, (sender, args) -> {
             if (args.length < 1) {
                 return "Usage: /op <player>";
@@ -446,4 +563,8 @@ public class API {
     public PluginLoader getPluginLoader() {
         return pluginLoader;
     }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
 }
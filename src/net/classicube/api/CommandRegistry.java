@@ -28,12 +28,24 @@ public class CommandRegistry {
         }
 
         try {
-            sender.sendMessage(command.getCommand().execute(sender, args));
+            sender.sendMessage(execute(command, sender, args));
         } catch (Exception e) {
             sender.sendMessage("Error executing command: " + e.getMessage());
         }
     }
 
+    private String execute(RegisteredCommand command, CommandSender sender, String[] args) throws Exception {
+        if (!Timings.isEnabled()) {
+            return command.getCommand().execute(sender, args);
+        }
+        long start = System.nanoTime();
+        try {
+            return command.getCommand().execute(sender, args);
+        } finally {
+            command.getTimings().record(System.nanoTime() - start);
+        }
+    }
+
     public Map<String, RegisteredCommand> getCommands() {
         return commands;
     }
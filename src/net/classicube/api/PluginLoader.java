@@ -75,6 +75,7 @@ public class PluginLoader {
     public void disablePlugins() {
         for (JavaPlugin javaPlugin : getLoadedPlugins()) {
             javaPlugin.onDisable();
+            API.getInstance().getScheduler().cancelTasks(javaPlugin);
         }
     }
 }
\ No newline at end of file
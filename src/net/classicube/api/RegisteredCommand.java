@@ -3,6 +3,7 @@ package net.classicube.api;
 public class RegisteredCommand {
     private final Command command;
     private final boolean requiresOp;
+    private final Timings timings = new Timings();
 
     public RegisteredCommand(Command command, boolean requiresOp) {
         this.command = command;
@@ -16,4 +17,8 @@ public class RegisteredCommand {
     public boolean isRequiresOp() {
         return requiresOp;
     }
+
+    public Timings getTimings() {
+        return timings;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package net.classicube.api;
+
+public class ScheduledTask {
+    private final int id;
+    private final JavaPlugin owner;
+    private final Runnable task;
+    private final boolean async;
+    private final long period;
+    private volatile boolean cancelled;
+
+    // Timing wheel bookkeeping, only touched by the tick thread
+    long rounds;
+
+    ScheduledTask(int id, JavaPlugin owner, Runnable task, boolean async, long period) {
+        this.id = id;
+        this.owner = owner;
+        this.task = task;
+        this.async = async;
+        this.period = period;
+    }
+
+    void run() {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            System.err.println("Error running task " + id + " for " + owner.getClass().getName() + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public JavaPlugin getOwner() {
+        return owner;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public boolean isRepeating() {
+        return period > 0;
+    }
+
+    long getPeriod() {
+        return period;
+    }
+}
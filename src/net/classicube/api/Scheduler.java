@@ -0,0 +1,202 @@
+package net.classicube.api;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Plugin task scheduler driven by the server tick. Delays and periods are in ticks.
+// Sync tasks run on the tick thread; async tasks are timed by the tick but run on a
+// shared, bounded worker pool.
+public class Scheduler {
+    private static final int WHEEL_SIZE = 512; // must be a power of two
+    private static final int ASYNC_THREADS = 4;
+    private static final int ASYNC_QUEUE_SIZE = 1024;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<ScheduledTask>[] wheel = new ArrayDeque[WHEEL_SIZE];
+    private final Queue<PendingTask> pending = new ConcurrentLinkedQueue<>();
+    private final Set<ScheduledTask> activeTasks = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    private final ThreadPoolExecutor asyncPool = new ThreadPoolExecutor(
+            ASYNC_THREADS, ASYNC_THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(ASYNC_QUEUE_SIZE),
+            runnable -> {
+                Thread thread = new Thread(runnable, "Plugin-Async-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    private long currentTick;
+
+    public Scheduler() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+    }
+
+    public ScheduledTask runTask(JavaPlugin plugin, Runnable task) {
+        return schedule(plugin, task, false, 0, 0);
+    }
+
+    public ScheduledTask runTaskLater(JavaPlugin plugin, Runnable task, long delay) {
+        return schedule(plugin, task, false, delay, 0);
+    }
+
+    public ScheduledTask runTaskTimer(JavaPlugin plugin, Runnable task, long delay, long period) {
+        return schedule(plugin, task, false, delay, requirePeriod(period));
+    }
+
+    public ScheduledTask runTaskAsynchronously(JavaPlugin plugin, Runnable task) {
+        return schedule(plugin, task, true, 0, 0);
+    }
+
+    public ScheduledTask runTaskLaterAsynchronously(JavaPlugin plugin, Runnable task, long delay) {
+        return schedule(plugin, task, true, delay, 0);
+    }
+
+    public ScheduledTask runTaskTimerAsynchronously(JavaPlugin plugin, Runnable task, long delay, long period) {
+        return schedule(plugin, task, true, delay, requirePeriod(period));
+    }
+
+    public void cancelTasks(JavaPlugin plugin) {
+        for (ScheduledTask task : activeTasks) {
+            if (task.getOwner() == plugin) {
+                task.cancel();
+                activeTasks.remove(task);
+            }
+        }
+    }
+
+    public int getActiveTaskCount() {
+        return activeTasks.size();
+    }
+
+    public int getAsyncQueueDepth() {
+        return asyncPool.getQueue().size();
+    }
+
+    // Called once per server tick from the game loop
+    public void tick() {
+        long tick = ++currentTick;
+
+        List<ScheduledTask> repeating = null;
+        Iterator<ScheduledTask> slot = wheel[(int) (tick & (WHEEL_SIZE - 1))].iterator();
+        while (slot.hasNext()) {
+            ScheduledTask task = slot.next();
+            if (task.isCancelled()) {
+                slot.remove();
+                activeTasks.remove(task);
+                continue;
+            }
+            if (task.rounds > 0) {
+                task.rounds--;
+                continue;
+            }
+            slot.remove();
+            if (execute(task)) {
+                if (repeating == null) {
+                    repeating = new ArrayList<>();
+                }
+                repeating.add(task);
+            }
+        }
+
+        if (repeating != null) {
+            for (ScheduledTask task : repeating) {
+                place(task, tick + task.getPeriod());
+            }
+        }
+
+        // Only after the scan, so a delay that is a whole number of wheel turns doesn't land
+        // in the slot just scanned and run a turn early
+        PendingTask newTask;
+        while ((newTask = pending.poll()) != null) {
+            if (newTask.delay == 0) {
+                if (execute(newTask.task)) {
+                    place(newTask.task, tick + newTask.task.getPeriod());
+                }
+            } else {
+                place(newTask.task, tick + newTask.delay);
+            }
+        }
+    }
+
+    public void shutdown() {
+        for (ScheduledTask task : activeTasks) {
+            task.cancel();
+        }
+        activeTasks.clear();
+        asyncPool.shutdown();
+    }
+
+    private ScheduledTask schedule(JavaPlugin plugin, Runnable task, boolean async, long delay, long period) {
+        if (plugin == null || task == null) {
+            throw new IllegalArgumentException("Plugin and task must not be null");
+        }
+        if (delay < 0) {
+            throw new IllegalArgumentException("Delay must not be negative: " + delay);
+        }
+        ScheduledTask scheduled = new ScheduledTask(nextId.getAndIncrement(), plugin, task, async, period);
+        activeTasks.add(scheduled);
+        pending.add(new PendingTask(scheduled, delay));
+        return scheduled;
+    }
+
+    // Runs the task now (sync) or hands it to the pool (async); returns true if it should repeat
+    private boolean execute(ScheduledTask task) {
+        if (task.isCancelled()) {
+            activeTasks.remove(task);
+            return false;
+        }
+
+        if (task.isAsync()) {
+            try {
+                asyncPool.execute(task::run);
+            } catch (RejectedExecutionException e) {
+                System.err.println("Async task queue is full, skipped task " + task.getId() +
+                        " for " + task.getOwner().getClass().getName());
+            }
+        } else {
+            task.run();
+        }
+
+        if (task.isRepeating() && !task.isCancelled()) {
+            return true;
+        }
+        activeTasks.remove(task);
+        return false;
+    }
+
+    private void place(ScheduledTask task, long dueTick) {
+        long delay = dueTick - currentTick;
+        task.rounds = (delay - 1) / WHEEL_SIZE;
+        wheel[(int) (dueTick & (WHEEL_SIZE - 1))].add(task);
+    }
+
+    private static long requirePeriod(long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        return period;
+    }
+
+    private static class PendingTask {
+        final ScheduledTask task;
+        final long delay;
+
+        PendingTask(ScheduledTask task, long delay) {
+            this.task = task;
+            this.delay = delay;
+        }
+    }
+}
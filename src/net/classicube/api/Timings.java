@@ -0,0 +1,81 @@
+package net.classicube.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Call statistics for one handler: count, total and max time, and a power-of-two
+// histogram (bucket i counts calls that took less than 2^i nanoseconds)
+public class Timings {
+    public static final int BUCKETS = 40;
+    private static volatile boolean enabled = true;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Timings.enabled = enabled;
+    }
+
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+        histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+    }
+
+    public void reset() {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public double getAverageNanos() {
+        long calls = getCount();
+        return calls == 0 ? 0 : (double) getTotalNanos() / calls;
+    }
+
+    public long getBucket(int bucket) {
+        return histogram.get(bucket);
+    }
+
+    // Upper bound of the histogram bucket containing the given percentile (0-100)
+    public long getPercentileNanos(double percentile) {
+        long calls = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            calls += histogram.get(i);
+        }
+        long threshold = (long) Math.ceil(calls * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen >= threshold && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,111 @@
+package net.classicube.api;
+
+import net.classicube.api.event.EventRegistry;
+import net.classicube.api.event.RegisteredListener;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+// Formats listener and command timings for the /timings command
+public class TimingsReport {
+    private static final String TIMINGS_DIRECTORY = "timings";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final CommandRegistry commandRegistry;
+
+    public TimingsReport(CommandRegistry commandRegistry) {
+        this.commandRegistry = commandRegistry;
+    }
+
+    public String summary(int limit) {
+        List<Entry> entries = collect();
+        if (entries.isEmpty()) {
+            return "No timings recorded" + (Timings.isEnabled() ? "" : " (timings are off)");
+        }
+
+        StringBuilder report = new StringBuilder("Slowest handlers by total time:");
+        for (Entry entry : entries.subList(0, Math.min(limit, entries.size()))) {
+            Timings timings = entry.timings;
+            report.append("\n").append(entry.name)
+                    .append(": ").append(timings.getCount()).append(" calls, total ")
+                    .append(formatMillis(timings.getTotalNanos())).append(", avg ")
+                    .append(formatMillis((long) timings.getAverageNanos())).append(", max ")
+                    .append(formatMillis(timings.getMaxNanos()));
+        }
+        return report.toString();
+    }
+
+    public Path dump() throws IOException {
+        Path directory = Paths.get(TIMINGS_DIRECTORY);
+        Files.createDirectories(directory);
+        Path file = directory.resolve("timings-" + LocalDateTime.now().format(FILE_TIME) + ".txt");
+
+        List<String> lines = new ArrayList<>();
+        lines.add("# name, calls, total ns, avg ns, max ns, p50 ns, p99 ns");
+        lines.add("# followed by histogram buckets: <2^i ns = calls");
+        for (Entry entry : collect()) {
+            Timings timings = entry.timings;
+            lines.add(String.format("%s, %d, %d, %.0f, %d, %d, %d",
+                    entry.name,
+                    timings.getCount(),
+                    timings.getTotalNanos(),
+                    timings.getAverageNanos(),
+                    timings.getMaxNanos(),
+                    timings.getPercentileNanos(50),
+                    timings.getPercentileNanos(99)));
+            for (int i = 0; i < Timings.BUCKETS; i++) {
+                long calls = timings.getBucket(i);
+                if (calls > 0) {
+                    lines.add("    <2^" + i + " ns = " + calls);
+                }
+            }
+        }
+        Files.write(file, lines);
+        return file;
+    }
+
+    // Also clears the async listener latencies shown by /events
+    public void reset() {
+        for (Entry entry : collect()) {
+            entry.timings.reset();
+        }
+        for (RegisteredListener listener : EventRegistry.getRegisteredListeners()) {
+            listener.getAsyncLatency().reset();
+        }
+    }
+
+    private List<Entry> collect() {
+        List<Entry> entries = new ArrayList<>();
+        for (RegisteredListener listener : EventRegistry.getRegisteredListeners()) {
+            entries.add(new Entry("listener " + listener.getName(), listener.getTimings()));
+        }
+        for (Map.Entry<String, RegisteredCommand> command : commandRegistry.getCommands().entrySet()) {
+            entries.add(new Entry("command /" + command.getKey(), command.getValue().getTimings()));
+        }
+        entries.removeIf(entry -> entry.timings.getCount() == 0);
+        entries.sort(Comparator.comparingLong((Entry entry) -> entry.timings.getTotalNanos()).reversed());
+        return entries;
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.3fms", nanos / 1_000_000.0);
+    }
+
+    private static class Entry {
+        final String name;
+        final Timings timings;
+
+        Entry(String name, Timings timings) {
+            this.name = name;
+            this.timings = timings;
+        }
+    }
+}
@@ -52,6 +52,14 @@ public enum BlockType {
     MOSSY_COBBLESTONE(48),
     OBSIDIAN(49);
 
+    private static final BlockType[] BY_ID = new BlockType[256];
+
+    static {
+        for (BlockType type : values()) {
+            BY_ID[type.id & 0xFF] = type;
+        }
+    }
+
     private final byte id;
 
     BlockType(int id) {
@@ -59,12 +67,7 @@ public enum BlockType {
     }
 
     public static BlockType getById(byte id) {
-        for (BlockType type : values()) {
-            if (type.id == id) {
-                return type;
-            }
-        }
-        return null; // return null, this is useful for checking if a block id is valid
+        return BY_ID[id & 0xFF]; // return null, this is useful for checking if a block id is valid
     }
 
     public static BlockType getByName(String name) {
@@ -0,0 +1,135 @@
+package net.classicube.api.event;
+
+import net.classicube.metrics.ServerMetrics;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Delivers events to async listeners on a small worker pool. Events for the same
+// player go through one lane, so a player's events are handled in the order they happened.
+// At most MAX_QUEUED_EVENTS wait at once; past that new events are dropped rather than
+// blocking the thread that fired them, which is usually the tick.
+class AsyncEventBus {
+    private static final int WORKER_THREADS = 4;
+    private static final int MAX_TASKS_PER_RUN = 32;
+    private static final int MAX_QUEUED_EVENTS = 8192;
+
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    // Room for every queued event to have its own runnable
+    private final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+            WORKER_THREADS, WORKER_THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_EVENTS),
+            runnable -> {
+                Thread thread = new Thread(runnable, "AsyncEvent-Worker-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    private final Map<Object, Lane> lanes = new HashMap<>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    void dispatch(Object key, Event event, RegisteredListener[] listeners) {
+        long enqueuedAt = System.nanoTime();
+        if (queueDepth.incrementAndGet() > MAX_QUEUED_EVENTS) {
+            queueDepth.decrementAndGet();
+            ServerMetrics.ASYNC_EVENTS_DROPPED.increment();
+            return;
+        }
+        Runnable task = () -> deliver(event, listeners, enqueuedAt);
+
+        try {
+            if (key == null) {
+                workers.execute(task);
+                return;
+            }
+
+            synchronized (lanes) {
+                Lane lane = lanes.get(key);
+                if (lane != null) {
+                    lane.tasks.add(task);
+                    return;
+                }
+                lane = new Lane(key);
+                lane.tasks.add(task);
+                lanes.put(key, lane);
+                workers.execute(lane);
+            }
+        } catch (RejectedExecutionException e) {
+            queueDepth.decrementAndGet();
+            ServerMetrics.ASYNC_EVENTS_DROPPED.increment();
+            System.err.println("Dropped async event " + event.getClass().getSimpleName() + ": event bus is shut down");
+        }
+    }
+
+    private void deliver(Event event, RegisteredListener[] listeners, long enqueuedAt) {
+        try {
+            for (RegisteredListener registeredListener : listeners) {
+                try {
+                    registeredListener.execute(event);
+                } catch (Throwable e) {
+                    System.err.println("Error processing async event: " + e.getMessage());
+                    e.printStackTrace();
+                }
+                registeredListener.getAsyncLatency().record(System.nanoTime() - enqueuedAt);
+            }
+        } finally {
+            queueDepth.decrementAndGet();
+        }
+    }
+
+    int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    void shutdown(long timeoutMillis) {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                System.err.println("Async event bus did not finish in time, " + queueDepth.get() + " events left");
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Lane implements Runnable {
+        private final Object key;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        Lane(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+                    Runnable task;
+                    synchronized (lanes) {
+                        task = tasks.poll();
+                        if (task == null) {
+                            lanes.remove(key);
+                            return;
+                        }
+                    }
+                    task.run();
+                }
+
+                // Give other lanes a turn before continuing with this one. If the pool
+                // takes no more work, the lane drains here instead.
+                try {
+                    workers.execute(this);
+                    return;
+                } catch (RejectedExecutionException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -1,23 +1,40 @@
 package net.classicube.api.event;
 
+import net.classicube.jfr.EventDispatchEvent;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.lang.reflect.Method;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 public class EventRegistry {
-    // Concurrent map to store event listeners
+    private static final RegisteredListener[] NO_LISTENERS = new RegisteredListener[0];
+    private static final DispatchTable EMPTY_TABLE = new DispatchTable(NO_LISTENERS, NO_LISTENERS);
+    private static final Comparator<RegisteredListener> DISPATCH_ORDER =
+            Comparator.comparingInt((RegisteredListener l) -> -l.priority).thenComparingLong(l -> l.order);
+
+    // Listeners by the event type their handler method declares, guarded by the class lock
     private static final Map<Class<? extends Event>, List<RegisteredListener>>
-            eventListeners = new ConcurrentHashMap<>();
+            eventListeners = new HashMap<>();
+
+    // Per concrete event class: every listener for the class or one of its supertypes,
+    // sorted by priority. Rebuilt on register/unregister so callEvent is a single lookup.
+    private static final Map<Class<?>, DispatchTable>
+            dispatchTables = new ConcurrentHashMap<>();
+
+    private static final AsyncEventBus asyncBus = new AsyncEventBus();
+
+    private static long nextOrder;
 
     // Register a listener for all its annotated event handler methods
-    public static void registerListener(Object listener) {
+    public static synchronized void registerListener(Object listener) {
         for (Method method : listener.getClass().getDeclaredMethods()) {
             if (method.isAnnotationPresent(EventHandler.class)) {
                 // Check if the method has correct event handler signature
@@ -29,6 +46,7 @@ public class EventRegistry {
                 }
 
                 // Get event type and priority
+                @SuppressWarnings("unchecked")
                 Class<? extends Event> eventType =
                         (Class<? extends Event>) method.getParameterTypes()[0];
                 EventHandler annotation = method.getAnnotation(EventHandler.class);
@@ -36,68 +54,135 @@ public class EventRegistry {
                 // Make the method accessible
                 method.setAccessible(true);
 
-                // Add to listeners map
-                eventListeners.computeIfAbsent(
-                        eventType,
-                        k -> new CopyOnWriteArrayList<>()
-                ).add(new RegisteredListener(
-                        listener, method, annotation.priority()
-                ));
-
-                // Sort listeners by priority
-                eventListeners.get(eventType).sort(
-                        (a, b) -> Integer.compare(b.priority, a.priority)
-                );
+                eventListeners.computeIfAbsent(eventType, k -> new ArrayList<>())
+                        .add(new RegisteredListener(listener, method, annotation.priority(),
+                                annotation.async(), nextOrder++));
             }
         }
+        rebuildDispatchTables();
     }
 
-    public static void unregisterListener(Object listener) {
-        // Iterate through all registered event types
-        for (Map.Entry<Class<? extends Event>, List<RegisteredListener>> entry :
-                eventListeners.entrySet()) {
-
-            // Remove all listeners associated with the given listener object
-            entry.getValue().removeIf(
-                    registeredListener -> registeredListener.listener == listener
-            );
+    public static synchronized void unregisterListener(Object listener) {
+        // Remove all listeners associated with the given listener object,
+        // dropping event types that have none left
+        eventListeners.values().removeIf(listeners -> {
+            listeners.removeIf(registeredListener -> registeredListener.listener == listener);
+            return listeners.isEmpty();
+        });
+        rebuildDispatchTables();
+    }
 
-            // If no listeners remain for this event type, remove the entry
-            if (entry.getValue().isEmpty()) {
-                eventListeners.remove(entry.getKey());
-            }
-        }
+    // Lets hot paths skip constructing events nobody listens to
+    public static boolean hasListeners(Class<? extends Event> eventType) {
+        DispatchTable table = getDispatchTable(eventType);
+        return table.sync.length > 0 || table.async.length > 0;
     }
 
     public static <T extends Event> T callEvent(T event) {
-        List<RegisteredListener> listeners =
-                eventListeners.getOrDefault(event.getClass(), Collections.emptyList());
+        EventDispatchEvent dispatchEvent = new EventDispatchEvent();
+        dispatchEvent.begin();
+        DispatchTable table = getDispatchTable(event.getClass());
 
-        for (RegisteredListener registeredListener : listeners) {
+        for (RegisteredListener registeredListener : table.sync) {
             try {
                 // Invoke the event handler method
-                registeredListener.method.invoke(
-                        registeredListener.listener, event
-                );
+                registeredListener.execute(event);
 
                 // Stop processing if event is cancelled
                 if (event.isCancelled()) {
                     break;
                 }
-            } catch (Exception e) {
+            } catch (Throwable e) {
                 System.err.println("Error processing event: " + e.getMessage());
                 e.printStackTrace();
             }
         }
+        dispatchEvent.commit(event.getClass(), table.sync.length, event.isCancelled());
+
+        // Async listeners only see the outcome of the sync ones, so they can't cancel
+        if (table.async.length > 0 && !event.isCancelled()) {
+            Object orderingKey = event instanceof PlayerEvent ? ((PlayerEvent) event).getPlayer() : null;
+            asyncBus.dispatch(orderingKey, event, table.async);
+        }
 
         return event;
     }
 
+    public static int getAsyncQueueDepth() {
+        return asyncBus.getQueueDepth();
+    }
+
+    public static synchronized List<RegisteredListener> getRegisteredListeners() {
+        List<RegisteredListener> all = new ArrayList<>();
+        for (List<RegisteredListener> listeners : eventListeners.values()) {
+            all.addAll(listeners);
+        }
+        all.sort(DISPATCH_ORDER);
+        return all;
+    }
+
+    // Waits for queued async events to be handled, e.g. so plugin writes finish before shutdown
+    public static void shutdownAsync(long timeoutMillis) {
+        asyncBus.shutdown(timeoutMillis);
+    }
+
+    private static DispatchTable getDispatchTable(Class<?> eventClass) {
+        DispatchTable table = dispatchTables.get(eventClass);
+        if (table == null) {
+            // First time this event class is seen; later changes are applied by rebuildDispatchTables
+            synchronized (EventRegistry.class) {
+                table = dispatchTables.computeIfAbsent(eventClass, EventRegistry::buildDispatchTable);
+            }
+        }
+        return table;
+    }
+
+    private static void rebuildDispatchTables() {
+        for (Class<?> eventClass : dispatchTables.keySet()) {
+            dispatchTables.put(eventClass, buildDispatchTable(eventClass));
+        }
+    }
+
+    private static DispatchTable buildDispatchTable(Class<?> eventClass) {
+        List<RegisteredListener> table = new ArrayList<>();
+        for (Class<?> type = eventClass; type != null && Event.class.isAssignableFrom(type); type = type.getSuperclass()) {
+            List<RegisteredListener> listeners = eventListeners.get(type);
+            if (listeners != null) {
+                table.addAll(listeners);
+            }
+        }
+        if (table.isEmpty()) {
+            return EMPTY_TABLE;
+        }
+        table.sort(DISPATCH_ORDER);
+
+        List<RegisteredListener> sync = new ArrayList<>();
+        List<RegisteredListener> async = new ArrayList<>();
+        for (RegisteredListener listener : table) {
+            (listener.async ? async : sync).add(listener);
+        }
+        return new DispatchTable(sync.toArray(NO_LISTENERS), async.toArray(NO_LISTENERS));
+    }
+
     // Annotation to mark event handler methods
     @Retention(RetentionPolicy.RUNTIME)
     @Target(ElementType.METHOD)
     public @interface EventHandler {
         int priority() default 0;
+
+        // Run on a worker thread after the sync handlers, for handlers doing I/O.
+        // Not called for cancelled events, and can't cancel the event itself.
+        boolean async() default false;
+    }
+
+    private static class DispatchTable {
+        final RegisteredListener[] sync;
+        final RegisteredListener[] async;
+
+        DispatchTable(RegisteredListener[] sync, RegisteredListener[] async) {
+            this.sync = sync;
+            this.async = async;
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -4,21 +4,16 @@ import net.classicube.api.Location;
 import net.classicube.api.Player;
 import net.classicube.api.enums.BlockType;
 
-public class PlayerBlockEvent extends Event {
-    protected final Player player;
+public class PlayerBlockEvent extends PlayerEvent {
     protected final Location blockLocation;
     protected BlockType blockType;
 
     public PlayerBlockEvent(Player player, Location blockLocation, BlockType blockType) {
-        this.player = player;
+        super(player);
         this.blockLocation = blockLocation;
         this.blockType = blockType;
     }
 
-    public Player getPlayer() {
-        return player;
-    }
-
     public Location getBlockLocation() {
         return blockLocation;
     }
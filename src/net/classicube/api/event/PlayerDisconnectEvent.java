@@ -2,20 +2,15 @@ package net.classicube.api.event;
 
 import net.classicube.api.Player;
 
-public class PlayerDisconnectEvent extends Event
+public class PlayerDisconnectEvent extends PlayerEvent
 {
-    private final Player player;
     private final String reason;
     public PlayerDisconnectEvent(Player player, String reason)
     {
-        this.player = player;
+        super(player);
         this.reason = reason;
     }
 
-    public Player getPlayer() {
-        return player;
-    }
-
     public String getReason() {
         return reason;
     }
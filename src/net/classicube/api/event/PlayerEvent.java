@@ -0,0 +1,16 @@
+package net.classicube.api.event;
+
+import net.classicube.api.Player;
+
+// Base class for events caused by a player; async listeners receive these in per-player order
+public abstract class PlayerEvent extends Event {
+    protected final Player player;
+
+    protected PlayerEvent(Player player) {
+        this.player = player;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+}
@@ -2,14 +2,8 @@ package net.classicube.api.event;
 
 import net.classicube.api.Player;
 
-public class PlayerJoinEvent extends Event {
-    private final Player player;
-
+public class PlayerJoinEvent extends PlayerEvent {
     public PlayerJoinEvent(Player player) {
-        this.player = player;
-    }
-
-    public Player getPlayer() {
-        return player;
+        super(player);
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,82 @@
 package net.classicube.api.event;
 
+import net.classicube.api.Timings;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 
 public class RegisteredListener {
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class, Object.class, Event.class);
+
     final Object listener;
     final Method method;
     final int priority;
+    final boolean async;
+    // Registration sequence, keeps listeners with equal priority in registration order
+    final long order;
+    // Bound once at registration so dispatch avoids Method.invoke's access checks and argument array
+    final MethodHandle invoker;
+
+    // Time spent inside the handler
+    private final Timings timings = new Timings();
+    // Async delivery latency, from the event being queued to this handler returning
+    private final Timings asyncLatency = new Timings();
 
     public RegisteredListener(Object listener, Method method, int priority) {
+        this(listener, method, priority, false, 0);
+    }
+
+    RegisteredListener(Object listener, Method method, int priority, boolean async, long order) {
         this.listener = listener;
         this.method = method;
         this.priority = priority;
+        this.async = async;
+        this.order = order;
+        this.invoker = createInvoker(method);
+    }
+
+    void execute(Event event) throws Throwable {
+        if (!Timings.isEnabled()) {
+            invoker.invokeExact(listener, event);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            invoker.invokeExact(listener, event);
+        } finally {
+            timings.record(System.nanoTime() - start);
+        }
+    }
+
+    public String getName() {
+        return listener.getClass().getName() + "#" + method.getName() +
+                "(" + method.getParameterTypes()[0].getSimpleName() + ")";
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public Timings getTimings() {
+        return timings;
+    }
+
+    public Timings getAsyncLatency() {
+        return asyncLatency;
+    }
+
+    private static MethodHandle createInvoker(Method method) {
+        try {
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            if (Modifier.isStatic(method.getModifiers())) {
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            return handle.asType(INVOKER_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access event handler method: " + method.getName(), e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,89 @@
+package net.classicube.capture;
+
+import net.classicube.packets.PacketType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+// Records the packets of one client session to a trace file. Sessions are only captured
+// if capture was on when they connected, so every trace starts with the login.
+public class PacketCapture {
+    private static final String CAPTURE_DIRECTORY = "captures";
+    // Where the verification key (mppass) sits in a player identification packet: after
+    // the id, the protocol version and the 64-byte name
+    private static final int KEY_OFFSET = 66;
+    private static final int KEY_LENGTH = 64;
+    private static volatile boolean enabled;
+
+    private final PacketTrace.Writer writer;
+    private boolean closed;
+
+    private PacketCapture(PacketTrace.Writer writer) {
+        this.writer = writer;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        PacketCapture.enabled = enabled;
+    }
+
+    // Returns null when capture is off or the trace file can't be created
+    public static PacketCapture startSession(byte playerId) {
+        if (!enabled) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            Path directory = Paths.get(CAPTURE_DIRECTORY);
+            Files.createDirectories(directory);
+            String name = "session-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(now)) +
+                    "-" + (playerId & 0xFF) + PacketTrace.FILE_EXTENSION;
+            return new PacketCapture(new PacketTrace.Writer(directory.resolve(name), now));
+        } catch (IOException e) {
+            System.err.println("Failed to start packet capture: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Records a packet the client sent, id byte included. Stops the session once capture is turned off.
+    // The verification key of a player identification packet is zeroed, so traces don't hold it.
+    public synchronized void record(byte[] data, int length) {
+        if (closed) {
+            return;
+        }
+        if (!enabled) {
+            close();
+            return;
+        }
+        if (data[0] == PacketType.PLAYER_IDENTIFICATION.getId() && length >= KEY_OFFSET + KEY_LENGTH) {
+            data = Arrays.copyOf(data, length);
+            Arrays.fill(data, KEY_OFFSET, KEY_OFFSET + KEY_LENGTH, (byte) 0);
+        }
+        try {
+            writer.write(System.nanoTime(), data, length);
+        } catch (IOException e) {
+            System.err.println("Packet capture failed, stopping it for this session: " + e.getMessage());
+            close();
+        }
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close packet capture: " + e.getMessage());
+        }
+    }
+}
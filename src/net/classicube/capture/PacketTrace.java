@@ -0,0 +1,138 @@
+package net.classicube.capture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Binary trace of the packets one client sent. Layout:
+//   header: int magic "CCTR", byte version, long session start (epoch millis)
+//   record: varint microseconds since the previous record, varint length, packet bytes (id included)
+public final class PacketTrace {
+    public static final String FILE_EXTENSION = ".trace";
+    private static final int MAGIC = 0x43435452;
+    private static final int VERSION = 1;
+
+    private PacketTrace() {
+    }
+
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private long lastNanos;
+
+        public Writer(Path file, long startMillis) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 16384));
+            this.lastNanos = System.nanoTime();
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(startMillis);
+        }
+
+        public void write(long nanoTime, byte[] data, int length) throws IOException {
+            writeVarInt(out, Math.max(0, (nanoTime - lastNanos) / 1000));
+            writeVarInt(out, length);
+            out.write(data, 0, length);
+            lastNanos = nanoTime;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long startMillis;
+        private long offsetMicros;
+
+        public Reader(Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException(file + " is not a packet trace");
+                }
+                int version = in.readUnsignedByte();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported trace version " + version + " in " + file);
+                }
+                this.startMillis = in.readLong();
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        // Returns the next packet, or null at the end of the trace
+        public Record next() throws IOException {
+            long delta;
+            try {
+                delta = readVarInt(in);
+            } catch (EOFException e) {
+                return null;
+            }
+            byte[] data = new byte[(int) readVarInt(in)];
+            in.readFully(data);
+            offsetMicros += delta;
+            return new Record(offsetMicros, data);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    public static class Record {
+        private final long offsetMicros;
+        private final byte[] data;
+
+        Record(long offsetMicros, byte[] data) {
+            this.offsetMicros = offsetMicros;
+            this.data = data;
+        }
+
+        // Time since the session started
+        public long getOffsetMicros() {
+            return offsetMicros;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private static void writeVarInt(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarInt(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in trace");
+    }
+}
@@ -0,0 +1,122 @@
+package net.classicube.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.util.HashMap;
+import java.util.Map;
+
+// A request line and its headers. Header names are lower-cased; the body, if any, is left
+// unread on the stream.
+public class HttpRequest {
+    public static final int MAX_HEADER_LENGTH = 8192;
+
+    private final String method;
+    private final String path;
+    private final String version;
+    private final Map<String, String> headers;
+
+    private HttpRequest(String method, String path, String version, Map<String, String> headers) {
+        this.method = method;
+        this.path = path;
+        this.version = version;
+        this.headers = headers;
+    }
+
+    // Reads up to and including the blank line that ends the header, so anything the client
+    // sent after it stays on the stream. Returns null if the stream ends before the request.
+    public static HttpRequest read(InputStream input) throws IOException {
+        StringBuilder header = new StringBuilder();
+        int matched = 0;
+        while (matched < 4) {
+            int b = input.read();
+            if (b == -1) {
+                if (header.length() == 0) {
+                    return null;
+                }
+                throw new EOFException("Connection closed during request header");
+            }
+            if (header.length() == MAX_HEADER_LENGTH) {
+                throw new ProtocolException("Request header too large");
+            }
+            header.append((char) b);
+            matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return parse(header.toString());
+    }
+
+    private static HttpRequest parse(String header) throws ProtocolException {
+        String[] lines = header.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+            throw new ProtocolException("Malformed request line: " + lines[0]);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+            }
+        }
+
+        String path = requestLine[1];
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        return new HttpRequest(requestLine[0], path, requestLine[2], headers);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    // The request target without its query string
+    public String getPath() {
+        return path;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    public boolean isHead() {
+        return method.equals("HEAD");
+    }
+
+    // HTTP/1.1 connections stay open unless the client asks otherwise; HTTP/1.0 ones only on request
+    public boolean isKeepAlive() {
+        String connection = getHeader("connection");
+        if (version.equals("HTTP/1.0")) {
+            return connection != null && connection.equalsIgnoreCase("keep-alive");
+        }
+        return connection == null || !connection.toLowerCase().contains("close");
+    }
+
+    // Bodies aren't read, so a connection can't be reused after a request that has one
+    public boolean hasBody() {
+        String length = getHeader("content-length");
+        return getHeader("transfer-encoding") != null || (length != null && !length.equals("0"));
+    }
+
+    // Whether the client takes a gzip body, going by Accept-Encoding
+    public boolean acceptsGzip() {
+        String encodings = getHeader("accept-encoding");
+        if (encodings == null) {
+            return false;
+        }
+        for (String encoding : encodings.split(",")) {
+            String[] parts = encoding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,273 @@
+package net.classicube.http;
+
+import net.classicube.MinecraftClassicServer;
+import net.classicube.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Answers GET and HEAD requests for a fixed set of paths. Responses carry an ETag and
+// Cache-Control, If-None-Match gets a 304, clients that accept gzip get the precompressed
+// variant, and a single byte range gets a 206. Bodies go out in chunks, paced to the
+// per-connection rate limit; files on disk are streamed with FileChannel.transferTo
+// instead of being loaded into memory.
+public class StaticFileServer {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MIN_CHUNK_SIZE = 1024;
+    private static final long[] UNSATISFIABLE = new long[0];
+    private static final byte[] NOT_FOUND = "404 Not Found".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_ALLOWED = "405 Method Not Allowed".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BAD_REQUEST = "400 Bad Request".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UNAVAILABLE = "503 Service Unavailable".getBytes(StandardCharsets.US_ASCII);
+
+    private final Map<String, StaticResource> resources = new ConcurrentHashMap<>();
+    private final Set<Transfer> transfers = ConcurrentHashMap.newKeySet();
+    private final long bytesPerSecond; // per connection, 0 for no limit
+    private final int chunkSize;
+
+    public StaticFileServer(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        // Small enough that a throttled transfer still reports progress several times a second
+        this.chunkSize = bytesPerSecond > 0
+                ? (int) Math.max(MIN_CHUNK_SIZE, Math.min(CHUNK_SIZE, bytesPerSecond / 4))
+                : CHUNK_SIZE;
+    }
+
+    public void put(String path, StaticResource resource) {
+        resources.put(path, resource);
+    }
+
+    // Writes and flushes the response to one request
+    public void serve(HttpRequest request, Socket socket, OutputStream out, boolean keepAlive) throws IOException {
+        if (!request.getMethod().equals("GET") && !request.isHead()) {
+            writeResponse(out, 405, "text/plain", NOT_ALLOWED, keepAlive, false, "Allow: GET, HEAD\r\n");
+            return;
+        }
+        StaticResource resource = resources.get(request.getPath());
+        if (resource == null) {
+            writeResponse(out, 404, "text/plain", NOT_FOUND, keepAlive, request.isHead(), "");
+            return;
+        }
+
+        // Ranges count bytes of the plain body, so range requests never get gzip
+        String rangeHeader = request.getHeader("range");
+        boolean gzip = resource.hasGzip() && request.acceptsGzip() && rangeHeader == null;
+        boolean notModified = resource.matches(request.getHeader("if-none-match"));
+        long length = resource.getLength(gzip);
+        long[] range = notModified ? null : parseRange(rangeHeader, request.getHeader("if-range"), resource, length);
+        if (range == UNSATISFIABLE) {
+            writeResponse(out, 416, "text/plain", new byte[0], keepAlive, false, "Content-Range: bytes */" + length + "\r\n");
+            return;
+        }
+
+        StringBuilder header = startResponse(notModified ? 304 : range != null ? 206 : 200, keepAlive);
+        header.append("ETag: ").append(resource.getEtag(gzip)).append("\r\n");
+        header.append("Cache-Control: ").append(resource.getCacheControl()).append("\r\n");
+        header.append("Accept-Ranges: bytes\r\n");
+        if (resource.hasGzip()) {
+            header.append("Vary: Accept-Encoding\r\n");
+        }
+        if (notModified) {
+            out.write(header.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return;
+        }
+
+        long start = range != null ? range[0] : 0;
+        long count = range != null ? range[1] - range[0] + 1 : length;
+        header.append("Content-Type: ").append(resource.getContentType()).append("\r\n");
+        header.append("Content-Length: ").append(count).append("\r\n");
+        if (range != null) {
+            header.append("Content-Range: bytes ").append(range[0]).append('-').append(range[1])
+                    .append('/').append(length).append("\r\n");
+        }
+        if (gzip) {
+            header.append("Content-Encoding: gzip\r\n");
+        }
+        out.write(header.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII));
+        if (!request.isHead()) {
+            sendBody(resource, gzip, start, count, socket, out);
+        }
+        out.flush();
+    }
+
+    // Returns {first, last} for a single satisfiable byte range, UNSATISFIABLE, or null to
+    // send the whole body: no or malformed Range, several ranges, or a stale If-Range
+    private static long[] parseRange(String rangeHeader, String ifRange, StaticResource resource, long length) {
+        if (rangeHeader == null || !rangeHeader.startsWith("bytes=") || rangeHeader.indexOf(',') >= 0) {
+            return null;
+        }
+        if (ifRange != null && !ifRange.trim().equals(resource.getEtag(false))) {
+            return null;
+        }
+        String spec = rangeHeader.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                if (first < 0 || last < first) {
+                    return null;
+                }
+                if (first >= length) {
+                    return UNSATISFIABLE;
+                }
+                last = Math.min(last, length - 1);
+            }
+            return new long[]{first, last};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void sendBody(StaticResource resource, boolean gzip, long start, long count,
+                          Socket socket, OutputStream out) throws IOException {
+        Transfer transfer = new Transfer(socket);
+        transfers.add(transfer);
+        try {
+            long end = start + count;
+            if (resource.isFile()) {
+                out.flush();
+                try (FileChannel file = FileChannel.open(resource.getFile(), StandardOpenOption.READ)) {
+                    WritableByteChannel target = Channels.newChannel(out);
+                    for (long position = start; position < end; ) {
+                        long sent = file.transferTo(position, Math.min(chunkSize, end - position), target);
+                        if (sent <= 0) {
+                            throw new IOException(resource.getFile() + " shrank while being sent");
+                        }
+                        position += sent;
+                        transfer.progress(sent);
+                    }
+                }
+            } else {
+                byte[] content = resource.getContent(gzip);
+                for (int offset = (int) start; offset < end; ) {
+                    int length = (int) Math.min(chunkSize, end - offset);
+                    out.write(content, offset, length);
+                    offset += length;
+                    transfer.progress(length);
+                }
+            }
+        } finally {
+            transfers.remove(transfer);
+        }
+    }
+
+    // Closes connections whose download hasn't moved for the timeout, which unblocks the
+    // thread stuck writing to them. Returns how many were closed.
+    public int closeStalledTransfers(long timeoutMillis) {
+        long now = System.nanoTime();
+        int closed = 0;
+        for (Transfer transfer : transfers) {
+            if (now - transfer.lastProgress > TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+                transfers.remove(transfer);
+                try {
+                    transfer.socket.close();
+                } catch (IOException ignored) {
+                }
+                ServerMetrics.HTTP_STALLED_TRANSFERS.increment();
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    public static void writeBadRequest(OutputStream out) throws IOException {
+        writeResponse(out, 400, "text/plain", BAD_REQUEST, false, false, "");
+    }
+
+    public static void writeUnavailable(OutputStream out) throws IOException {
+        writeResponse(out, 503, "text/plain", UNAVAILABLE, false, false, "Retry-After: 5\r\n");
+    }
+
+    // Writes and flushes a complete response; extraHeaders is empty or whole header lines
+    public static void writeResponse(OutputStream out, int status, String contentType, byte[] body,
+                                     boolean keepAlive, boolean head, String extraHeaders) throws IOException {
+        StringBuilder header = startResponse(status, keepAlive);
+        header.append("Content-Type: ").append(contentType).append("\r\n");
+        header.append("Content-Length: ").append(body.length).append("\r\n");
+        header.append(extraHeaders).append("\r\n");
+        out.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+        if (!head) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    private static StringBuilder startResponse(int status, boolean keepAlive) {
+        return new StringBuilder(256)
+                .append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n")
+                .append("Server: ").append(MinecraftClassicServer.APP_NAME).append("\r\n")
+                .append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 206: return "Partial Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 416: return "Range Not Satisfiable";
+            case 503: return "Service Unavailable";
+            default: return "Unknown";
+        }
+    }
+
+    // One body being written, paced to the rate limit
+    private class Transfer {
+        private final Socket socket;
+        private final long startNanos = System.nanoTime();
+        private volatile long lastProgress = startNanos;
+        private long sent;
+
+        Transfer(Socket socket) {
+            this.socket = socket;
+        }
+
+        void progress(long bytes) throws InterruptedIOException {
+            sent += bytes;
+            lastProgress = System.nanoTime();
+            if (bytesPerSecond == 0) {
+                return;
+            }
+            long wait = startNanos + sent * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Download interrupted");
+                }
+                lastProgress = System.nanoTime();
+            }
+        }
+    }
+}
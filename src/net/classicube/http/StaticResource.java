@@ -0,0 +1,115 @@
+package net.classicube.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+// A file the web server hands out, either held in memory (small pages, with a gzip variant
+// compressed once up front) or streamed from disk on every request (large assets).
+public class StaticResource {
+    private final String contentType;
+    private final String cacheControl;
+    private final String etag;
+    private final long length;
+    private final byte[] content; // null for files on disk
+    private final byte[] gzipped; // null when compression doesn't pay off
+    private final String gzipEtag;
+    private final Path file;
+
+    private StaticResource(String contentType, String cacheControl, String etag, long length,
+                           byte[] content, byte[] gzipped, Path file) {
+        this.contentType = contentType;
+        this.cacheControl = cacheControl;
+        this.etag = etag;
+        this.length = length;
+        this.content = content;
+        this.gzipped = gzipped;
+        // Each encoding is a different representation, so it gets its own validator
+        this.gzipEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+        this.file = file;
+    }
+
+    public static StaticResource ofBytes(byte[] content, String contentType, String cacheControl) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(content.length) + "\"";
+        return new StaticResource(contentType, cacheControl, etag, content.length, content,
+                isCompressible(contentType) ? gzip(content) : null, null);
+    }
+
+    // Size and modification time are read now; the file is expected to stay as it is
+    public static StaticResource ofFile(Path file, String contentType, String cacheControl) throws IOException {
+        long length = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        String etag = "\"" + Long.toHexString(modified) + "-" + Long.toHexString(length) + "\"";
+        return new StaticResource(contentType, cacheControl, etag, length, null, null, file);
+    }
+
+    private static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.contains("javascript") ||
+                contentType.contains("json") || contentType.contains("xml");
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+            gzip.write(content);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.size() < content.length ? buffer.toByteArray() : null;
+    }
+
+    // True if any of the If-None-Match tags names this resource in either encoding
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag) || (gzipped != null && tag.equals(gzipEtag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getCacheControl() {
+        return cacheControl;
+    }
+
+    public String getEtag(boolean gzip) {
+        return gzip ? gzipEtag : etag;
+    }
+
+    public boolean hasGzip() {
+        return gzipped != null;
+    }
+
+    // Size of the body in the given encoding
+    public long getLength(boolean gzip) {
+        return gzip ? gzipped.length : length;
+    }
+
+    public byte[] getContent(boolean gzip) {
+        return gzip ? gzipped : content;
+    }
+
+    public boolean isFile() {
+        return file != null;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+}
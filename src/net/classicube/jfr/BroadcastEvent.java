@@ -0,0 +1,33 @@
+package net.classicube.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("net.classicube.Broadcast")
+@Label("Broadcast")
+@Category({"Classic Server", "Network"})
+@Description("Sending packets to a group of clients")
+@Threshold("1 ms")
+public class BroadcastEvent extends Event {
+    @Label("Packet Type")
+    private String packetType;
+
+    @Label("Packets")
+    private int packets;
+
+    @Label("Recipients")
+    private int recipients;
+
+    public void commit(String packetType, int packets, int recipients) {
+        if (shouldCommit()) {
+            this.packetType = packetType;
+            this.packets = packets;
+            this.recipients = recipients;
+            commit();
+        }
+    }
+}
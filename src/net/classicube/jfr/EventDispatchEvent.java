@@ -0,0 +1,33 @@
+package net.classicube.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("net.classicube.EventDispatch")
+@Label("Event Dispatch")
+@Category({"Classic Server", "Plugins"})
+@Description("Running the sync listeners of a plugin event")
+@Threshold("1 ms")
+public class EventDispatchEvent extends Event {
+    @Label("Event Type")
+    private Class<?> eventType;
+
+    @Label("Listeners")
+    private int listeners;
+
+    @Label("Cancelled")
+    private boolean cancelled;
+
+    public void commit(Class<?> eventType, int listeners, boolean cancelled) {
+        if (shouldCommit()) {
+            this.eventType = eventType;
+            this.listeners = listeners;
+            this.cancelled = cancelled;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package net.classicube.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+// Starts and stops the server's single on-demand flight recording. The custom events
+// in this package are recorded with whichever JFR settings ("default" or "profile") are used.
+public final class FlightRecording {
+    private static final String RECORDINGS_DIRECTORY = "recordings";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private static Recording recording;
+
+    private FlightRecording() {
+    }
+
+    public static synchronized void start(String settings) throws IOException, ParseException {
+        if (recording != null) {
+            throw new IllegalStateException("A recording is already running");
+        }
+        if (!FlightRecorder.isAvailable()) {
+            throw new IllegalStateException("Flight Recorder is not available in this JVM");
+        }
+
+        Recording newRecording = new Recording(Configuration.getConfiguration(settings));
+        newRecording.setName("classicube-server");
+        newRecording.setToDisk(true);
+        newRecording.start();
+        recording = newRecording;
+    }
+
+    // Stops the running recording and returns the file it was written to
+    public static synchronized Path stop() throws IOException {
+        if (recording == null) {
+            throw new IllegalStateException("No recording is running");
+        }
+
+        Path directory = Paths.get(RECORDINGS_DIRECTORY);
+        Files.createDirectories(directory);
+        Path file = directory.resolve("server-" + LocalDateTime.now().format(FILE_TIME) + ".jfr");
+        try {
+            recording.stop();
+            recording.dump(file);
+        } finally {
+            recording.close();
+            recording = null;
+        }
+        return file;
+    }
+
+    public static synchronized boolean isRecording() {
+        return recording != null;
+    }
+}
@@ -0,0 +1,29 @@
+package net.classicube.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("net.classicube.LevelSave")
+@Label("Level Save")
+@Category({"Classic Server", "Level"})
+@Description("Writing a level to disk")
+@StackTrace(false)
+public class LevelSaveEvent extends Event {
+    @Label("Level")
+    private String level;
+
+    @Label("File")
+    private String file;
+
+    public void commit(String level, String file) {
+        if (shouldCommit()) {
+            this.level = level;
+            this.file = file;
+            commit();
+        }
+    }
+}
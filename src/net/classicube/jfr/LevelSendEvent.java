@@ -0,0 +1,35 @@
+package net.classicube.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("net.classicube.LevelSend")
+@Label("Level Send")
+@Category({"Classic Server", "Level"})
+@Description("Compressing and sending a whole level to a client")
+@StackTrace(false)
+public class LevelSendEvent extends Event {
+    @Label("Player")
+    private String player;
+
+    @Label("Level")
+    private String level;
+
+    @Label("Compressed Size")
+    @DataAmount
+    private long compressedBytes;
+
+    public void commit(String player, String level, long compressedBytes) {
+        if (shouldCommit()) {
+            this.player = player;
+            this.level = level;
+            this.compressedBytes = compressedBytes;
+            commit();
+        }
+    }
+}
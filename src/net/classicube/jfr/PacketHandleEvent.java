@@ -0,0 +1,31 @@
+package net.classicube.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("net.classicube.PacketHandle")
+@Label("Packet Handle")
+@Category({"Classic Server", "Network"})
+@Description("Decoding and handling of one packet from a client")
+@Threshold("1 ms")
+@StackTrace(false)
+public class PacketHandleEvent extends Event {
+    @Label("Packet Type")
+    private String packetType;
+
+    @Label("Player")
+    private String player;
+
+    public void commit(String packetType, String player) {
+        if (shouldCommit()) {
+            this.packetType = packetType;
+            this.player = player;
+            commit();
+        }
+    }
+}
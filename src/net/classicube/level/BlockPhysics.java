@@ -0,0 +1,298 @@
+package net.classicube.level;
+
+import net.classicube.ClientHandler;
+import net.classicube.api.API;
+import net.classicube.api.enums.BlockType;
+import net.classicube.packets.Packet;
+import net.classicube.packets.SetBlockServerPacket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BlockPhysics {
+    private static final int WATER_DELAY = 2;
+    private static final int LAVA_DELAY = 8;
+    private static final int FALLING_DELAY = 1;
+    private static final int SPONGE_RADIUS = 2;
+
+    private final Level level;
+    private final BlockTickScheduler scheduler = new BlockTickScheduler();
+    private volatile long currentTick;
+    private int[] due = new int[0];
+    private int[] changed = new int[64];
+    private int changedCount;
+
+    // Metrics, written only by the ticking thread
+    private volatile long totalUpdates;
+    private volatile long totalChanges;
+    private volatile int lastTickUpdates;
+    private volatile int lastTickChanges;
+    private volatile long lastTickNanos;
+
+    public BlockPhysics(Level level) {
+        this.level = level;
+    }
+
+    // Called after a block was changed by a player or plugin; wakes the block and its neighbours
+    public void onBlockChanged(int x, int y, int z, BlockType previous) {
+        scheduleAround(x, y, z);
+        if (previous == BlockType.SPONGE) {
+            // Water held back by the sponge may flow again
+            int r = SPONGE_RADIUS + 1;
+            for (int dx = -r; dx <= r; dx++) {
+                for (int dy = -r; dy <= r; dy++) {
+                    for (int dz = -r; dz <= r; dz++) {
+                        if (isWater(blockAt(x + dx, y + dy, z + dz))) {
+                            scheduleUpdate(x + dx, y + dy, z + dz);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void tick(int budget) {
+        long start = System.nanoTime();
+        long tick = ++currentTick;
+        if (due.length != budget) {
+            due = new int[budget];
+        }
+
+        int count = scheduler.drainDue(tick, due);
+        for (int i = 0; i < count; i++) {
+            update(due[i]);
+        }
+
+        int changes = changedCount;
+        if (changes > 0) {
+            flushChanges();
+        }
+
+        totalUpdates += count;
+        totalChanges += changes;
+        lastTickUpdates = count;
+        lastTickChanges = changes;
+        lastTickNanos = System.nanoTime() - start;
+    }
+
+    private void update(int index) {
+        int width = level.getWidth();
+        int depth = level.getDepth();
+        int x = index % width;
+        int z = (index / width) % depth;
+        int y = index / (width * depth);
+
+        BlockType type = blockAt(x, y, z);
+        if (type == null) {
+            return;
+        }
+
+        switch (type) {
+            case FLOWING_WATER:
+            case STATIONARY_WATER:
+                flow(x, y, z, BlockType.FLOWING_WATER);
+                break;
+            case FLOWING_LAVA:
+            case STATIONARY_LAVA:
+                flow(x, y, z, BlockType.FLOWING_LAVA);
+                break;
+            case SAND:
+            case GRAVEL:
+                fall(x, y, z, type);
+                break;
+            case SPONGE:
+                absorb(x, y, z);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void flow(int x, int y, int z, BlockType liquid) {
+        flowInto(x + 1, y, z, liquid);
+        flowInto(x - 1, y, z, liquid);
+        flowInto(x, y, z + 1, liquid);
+        flowInto(x, y, z - 1, liquid);
+        flowInto(x, y - 1, z, liquid);
+    }
+
+    private void flowInto(int x, int y, int z, BlockType liquid) {
+        if (!level.isInBounds(x, y, z)) {
+            return;
+        }
+        BlockType target = blockAt(x, y, z);
+        if (target == BlockType.AIR) {
+            if (liquid == BlockType.FLOWING_WATER && isNearSponge(x, y, z)) {
+                return;
+            }
+            applyChange(x, y, z, liquid);
+        } else if (liquid == BlockType.FLOWING_WATER ? isLava(target) : isWater(target)) {
+            applyChange(x, y, z, BlockType.STONE);
+        }
+    }
+
+    private void fall(int x, int y, int z, BlockType type) {
+        int targetY = y;
+        while (targetY > 0 && canFallInto(blockAt(x, targetY - 1, z))) {
+            targetY--;
+        }
+        if (targetY != y) {
+            applyChange(x, y, z, BlockType.AIR);
+            applyChange(x, targetY, z, type);
+        }
+    }
+
+    private void absorb(int x, int y, int z) {
+        for (int dx = -SPONGE_RADIUS; dx <= SPONGE_RADIUS; dx++) {
+            for (int dy = -SPONGE_RADIUS; dy <= SPONGE_RADIUS; dy++) {
+                for (int dz = -SPONGE_RADIUS; dz <= SPONGE_RADIUS; dz++) {
+                    if (isWater(blockAt(x + dx, y + dy, z + dz))) {
+                        setAndTrack(x + dx, y + dy, z + dz, BlockType.AIR);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isNearSponge(int x, int y, int z) {
+        for (int dx = -SPONGE_RADIUS; dx <= SPONGE_RADIUS; dx++) {
+            for (int dy = -SPONGE_RADIUS; dy <= SPONGE_RADIUS; dy++) {
+                for (int dz = -SPONGE_RADIUS; dz <= SPONGE_RADIUS; dz++) {
+                    if (blockAt(x + dx, y + dy, z + dz) == BlockType.SPONGE) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void applyChange(int x, int y, int z, BlockType type) {
+        setAndTrack(x, y, z, type);
+        scheduleAround(x, y, z);
+    }
+
+    private void setAndTrack(int x, int y, int z, BlockType type) {
+        level.setBlock(x, y, z, type);
+        if (changedCount == changed.length) {
+            changed = Arrays.copyOf(changed, changed.length * 2);
+        }
+        changed[changedCount++] = index(x, y, z);
+    }
+
+    private void scheduleAround(int x, int y, int z) {
+        scheduleUpdate(x, y, z);
+        scheduleUpdate(x + 1, y, z);
+        scheduleUpdate(x - 1, y, z);
+        scheduleUpdate(x, y + 1, z);
+        scheduleUpdate(x, y - 1, z);
+        scheduleUpdate(x, y, z + 1);
+        scheduleUpdate(x, y, z - 1);
+    }
+
+    private void scheduleUpdate(int x, int y, int z) {
+        if (!level.isInBounds(x, y, z)) {
+            return;
+        }
+        int delay = getDelay(blockAt(x, y, z));
+        if (delay > 0) {
+            scheduler.schedule(currentTick + delay, index(x, y, z));
+        }
+    }
+
+    // Sends every block changed this tick in one batch per client
+    private void flushChanges() {
+        int count = changedCount;
+        changedCount = 0;
+        if (!API.initialized || level.getName() == null) {
+            return;
+        }
+
+        int width = level.getWidth();
+        int depth = level.getDepth();
+        List<Packet> packets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = changed[i];
+            int x = index % width;
+            int z = (index / width) % depth;
+            int y = index / (width * depth);
+
+            SetBlockServerPacket packet = new SetBlockServerPacket();
+            packet.setX((short) x);
+            packet.setY((short) y);
+            packet.setZ((short) z);
+            packet.setBlockType(level.getBlock(x, y, z));
+            packets.add(packet);
+        }
+        ClientHandler.broadcastPacketsToLevel(packets, level.getName());
+    }
+
+    private int index(int x, int y, int z) {
+        return (y * level.getDepth() + z) * level.getWidth() + x;
+    }
+
+    private BlockType blockAt(int x, int y, int z) {
+        if (!level.isInBounds(x, y, z)) {
+            return null;
+        }
+        return BlockType.getById(level.getBlock(x, y, z));
+    }
+
+    private static int getDelay(BlockType type) {
+        if (type == null) {
+            return 0;
+        }
+        switch (type) {
+            case FLOWING_WATER:
+            case STATIONARY_WATER:
+                return WATER_DELAY;
+            case FLOWING_LAVA:
+            case STATIONARY_LAVA:
+                return LAVA_DELAY;
+            case SAND:
+            case GRAVEL:
+            case SPONGE:
+                return FALLING_DELAY;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean canFallInto(BlockType type) {
+        return type == BlockType.AIR || (type != null && type.isLiquid());
+    }
+
+    private static boolean isWater(BlockType type) {
+        return type == BlockType.FLOWING_WATER || type == BlockType.STATIONARY_WATER;
+    }
+
+    private static boolean isLava(BlockType type) {
+        return type == BlockType.FLOWING_LAVA || type == BlockType.STATIONARY_LAVA;
+    }
+
+    // Metrics
+    public int getPendingUpdates() {
+        return scheduler.size();
+    }
+
+    public long getTotalUpdates() {
+        return totalUpdates;
+    }
+
+    public long getTotalChanges() {
+        return totalChanges;
+    }
+
+    public int getLastTickUpdates() {
+        return lastTickUpdates;
+    }
+
+    public int getLastTickChanges() {
+        return lastTickChanges;
+    }
+
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+}
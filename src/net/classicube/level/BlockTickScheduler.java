@@ -0,0 +1,75 @@
+package net.classicube.level;
+
+import java.util.Arrays;
+
+// Min-heap of pending block updates. Each entry is packed into a single long:
+// the due tick in the upper 32 bits and the flattened block index in the lower 32,
+// so ordering by the long orders by due tick first and no objects are allocated per update.
+public class BlockTickScheduler {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] heap = new long[INITIAL_CAPACITY];
+    private int size;
+
+    public synchronized void schedule(long dueTick, int index) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, heap.length * 2);
+        }
+        long entry = (dueTick << 32) | (index & 0xFFFFFFFFL);
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= entry) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    // Removes up to out.length entries due at or before currentTick into out,
+    // skipping duplicates of the same block scheduled for the same tick.
+    public synchronized int drainDue(long currentTick, int[] out) {
+        int count = 0;
+        long last = -1;
+        while (size > 0 && count < out.length && (heap[0] >>> 32) <= currentTick) {
+            long entry = poll();
+            if (entry == last) {
+                continue;
+            }
+            last = entry;
+            out[count++] = (int) entry;
+        }
+        return count;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        size = 0;
+    }
+
+    private long poll() {
+        long result = heap[0];
+        long last = heap[--size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = (i << 1) + 1;
+            int right = child + 1;
+            if (right < size && heap[right] < heap[child]) {
+                child = right;
+            }
+            if (last <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return result;
+    }
+}
@@ -3,6 +3,8 @@ package net.classicube.level;
 import net.classicube.ClientHandler;
 import net.classicube.api.API;
 import net.classicube.api.enums.BlockType;
+import net.classicube.jfr.LevelSaveEvent;
+import net.classicube.metrics.ServerMetrics;
 import net.classicube.packets.SetBlockServerPacket;
 
 import java.io.*;
@@ -14,6 +16,7 @@ public class Level {
     private final int width;
     private final int height;
     private final int depth;
+    private final BlockPhysics physics;
     private String name;
 
     public Level(int width, int height, int depth) {
@@ -21,6 +24,7 @@ public class Level {
         this.height = height;
         this.depth = depth;
         this.blocks = new byte[width][height][depth];
+        this.physics = new BlockPhysics(this);
     }
 
     public static Level loadFromFile(String filename) throws IOException {
@@ -45,6 +49,10 @@ public class Level {
         return name;
     }
 
+    public BlockPhysics getPhysics() {
+        return physics;
+    }
+
     // ===== File Operations =====
 
     public void setName(String name) {
@@ -52,6 +60,9 @@ public class Level {
     }
 
     public void saveToFile(String filename) throws IOException {
+        LevelSaveEvent saveEvent = new LevelSaveEvent();
+        saveEvent.begin();
+        long start = System.nanoTime();
         try (DataOutputStream dos = new DataOutputStream(
                 new GZIPOutputStream(
                         new BufferedOutputStream(
@@ -61,6 +72,8 @@ public class Level {
             dos.writeShort(depth);
             dos.write(getBlockData());
         }
+        ServerMetrics.LEVEL_SAVE.record(System.nanoTime() - start);
+        saveEvent.commit(name, filename);
     }
 
     // ===== Block Operations =====
@@ -76,6 +89,10 @@ public class Level {
     }
 
     public byte getBlock(short x, short y, short z) {
+        return getBlock((int) x, (int) y, (int) z);
+    }
+
+    public byte getBlock(int x, int y, int z) {
         if (isInBounds(x, y, z)) {
             return blocks[x][y][z];
         }
@@ -22,6 +22,9 @@ public class LevelManager {
     private static final String LEVELS_DIRECTORY = "levels";
     private final Map<String, Level> levels = new ConcurrentHashMap<>();
     private final Map<Player, String> playerLevels = new ConcurrentHashMap<>();
+    // Players between leaving their old level and being sent the new one, who get no
+    // broadcasts from either
+    private final Set<Player> switching = ConcurrentHashMap.newKeySet();
 
     public LevelManager() {
         initializeDirectory();
@@ -31,6 +34,10 @@ public class LevelManager {
         playerLevels.put(player, levelName);
     }
 
+    public boolean isSwitching(Player player) {
+        return player != null && switching.contains(player);
+    }
+
     private void initializeDirectory() {
         try {
             Files.createDirectories(Paths.get(LEVELS_DIRECTORY));
@@ -51,6 +58,11 @@ public class LevelManager {
         }
     }
 
+    // Adds a level that is already in memory under its own name, without saving it
+    public void addLevel(Level level) {
+        levels.put(level.getName(), level);
+    }
+
     public void createLevel(String name, short width, short height, short depth) throws IOException {
         // Check if level already exists
         if (levels.containsKey(name)) {
@@ -88,6 +100,25 @@ public class LevelManager {
         }
     }
 
+    public long getPendingPhysicsUpdates() {
+        long pending = 0;
+        for (Level level : levels.values()) {
+            pending += level.getPhysics().getPendingUpdates();
+        }
+        return pending;
+    }
+
+    public void tickPhysics(int updateBudget) {
+        for (Level level : levels.values()) {
+            try {
+                level.getPhysics().tick(updateBudget);
+            } catch (Exception e) {
+                System.err.println("Error ticking physics for level " + level.getName() + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
     public boolean switchPlayerLevel(Player player, String levelName) {
         Level level = levels.get(levelName);
         if (level == null) {
@@ -95,28 +126,27 @@ public class LevelManager {
         }
 
         ClientHandler handler = player.getHandle();
+        String oldLevel = getPlayerLevel(player);
         try {
-            // First despawn from old level if player was in one
-            String oldLevel = playerLevels.get(player);
-            if (oldLevel != null) {
-                // Broadcast despawn to players in old level
-                DespawnPlayerPacket despawnPacket = new DespawnPlayerPacket();
-                despawnPacket.setPlayerId(handler.getPlayerId());
-                broadcastPacketToLevelExcept(despawnPacket, oldLevel, handler);
+            // Leave the old level only once the map-stage pass is held, so the player keeps
+            // getting its updates while waiting in line and none once the new level is going out
+            if (!handler.sendLevel(level, () -> leaveLevel(handler, player, oldLevel))) {
+                System.err.println("Too many maps being sent to switch level for " + player.getUsername());
+                return false;
             }
-
-            // Send level switch packets
-            sendLevelToPlayer(handler, level);
+            // Position player in middle of level
+            teleportToSpawn(handler, level);
 
             // Update player level tracking
             playerLevels.put(player, levelName);
+            switching.remove(player);
 
             // Send spawns of existing players in this level to the joining player
             for (ClientHandler existingClient : ClientHandler.getClientsInLevel(levelName)) {
                 if (existingClient != handler) {
                     SpawnPlayerPacket spawnExisting = new SpawnPlayerPacket();
                     spawnExisting.setPlayerId(existingClient.getPlayerId());
-                    spawnExisting.setPlayerName(existingClient.getUsername());
+                    spawnExisting.setPlayerName(existingClient.getEncodedUsername());
                     spawnExisting.setX(existingClient.getX());
                     spawnExisting.setY(existingClient.getY());
                     spawnExisting.setZ(existingClient.getZ());
@@ -127,44 +157,41 @@ public class LevelManager {
             }
 
             // Broadcast spawn of joining player to everyone else in the level
-            SpawnPlayerPacket spawnJoining = new SpawnPlayerPacket();
-            spawnJoining.setPlayerId(handler.getPlayerId());
-            spawnJoining.setPlayerName(handler.getUsername());
-            spawnJoining.setX(handler.getX());
-            spawnJoining.setY(handler.getY());
-            spawnJoining.setZ(handler.getZ());
-            spawnJoining.setYaw(handler.getYaw());
-            spawnJoining.setPitch(handler.getPitch());
-            broadcastPacketToLevelExcept(spawnJoining, levelName, handler);
+            broadcastPacketToLevelExcept(createSpawnPacket(handler), levelName, handler);
 
             return true;
         } catch (IOException e) {
             System.err.println("Failed to switch level for " + player.getUsername() + ": " + e.getMessage());
+            if (switching.remove(player)) {
+                broadcastPacketToLevelExcept(createSpawnPacket(handler), oldLevel, handler);
+            }
             return false;
         }
     }
 
-    private void sendLevelToPlayer(ClientHandler handler, Level level) throws IOException {
-        // 1. Initialize level transfer
-        handler.sendPacket(new LevelInitializePacket());
-
-        // 2. Send compressed level data
-        byte[] levelData = level.getBlockData();
-        byte[] compressedData = compressLevelData(levelData);
-        sendCompressedData(handler, compressedData);
-
-        // 3. Finalize level transfer
-        LevelFinalizePacket finalizePacket = new LevelFinalizePacket();
-        finalizePacket.setXSize(level.getWidth());
-        finalizePacket.setYSize(level.getHeight());
-        finalizePacket.setZSize(level.getDepth());
-        handler.sendPacket(finalizePacket);
+    // Takes a switching player out of their old level: they stop getting its broadcasts and
+    // everyone left there sees them go
+    private void leaveLevel(ClientHandler handler, Player player, String oldLevel) {
+        switching.add(player);
+        DespawnPlayerPacket despawnPacket = new DespawnPlayerPacket();
+        despawnPacket.setPlayerId(handler.getPlayerId());
+        broadcastPacketToLevelExcept(despawnPacket, oldLevel, handler);
+    }
 
-        // 4. Position player in middle of level
-        teleportToSpawn(handler, level);
+    private static SpawnPlayerPacket createSpawnPacket(ClientHandler handler) {
+        SpawnPlayerPacket spawnPacket = new SpawnPlayerPacket();
+        spawnPacket.setPlayerId(handler.getPlayerId());
+        spawnPacket.setPlayerName(handler.getEncodedUsername());
+        spawnPacket.setX(handler.getX());
+        spawnPacket.setY(handler.getY());
+        spawnPacket.setZ(handler.getZ());
+        spawnPacket.setYaw(handler.getYaw());
+        spawnPacket.setPitch(handler.getPitch());
+        return spawnPacket;
     }
 
-    private byte[] compressLevelData(byte[] levelData) throws IOException {
+    // Level data as sent to clients: a 4-byte length prefix and the blocks, gzipped
+    public static byte[] compressLevelData(byte[] levelData) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(baos);
         dos.writeInt(levelData.length);
@@ -178,25 +205,6 @@ public class LevelManager {
         return compressedBaos.toByteArray();
     }
 
-    private void sendCompressedData(ClientHandler handler, byte[] compressedData) throws IOException {
-        int chunkSize = 1024;
-        int totalChunks = (compressedData.length + chunkSize - 1) / chunkSize;
-
-        for (int i = 0, chunkIndex = 0; i < compressedData.length; i += chunkSize, chunkIndex++) {
-            LevelDataChunkPacket chunkPacket = new LevelDataChunkPacket();
-            int remainingBytes = Math.min(chunkSize, compressedData.length - i);
-            chunkPacket.setChunkLength((short) remainingBytes);
-
-            byte[] chunkData = new byte[chunkSize];
-            System.arraycopy(compressedData, i, chunkData, 0, remainingBytes);
-
-            chunkPacket.setChunkData(chunkData);
-            chunkPacket.setPercentComplete((byte) ((chunkIndex + 1) * 100 / totalChunks));
-
-            handler.sendPacket(chunkPacket);
-        }
-    }
-
     private void teleportToSpawn(ClientHandler handler, Level level) throws IOException {
         ServerPositionPacket posPacket = new ServerPositionPacket();
         posPacket.setPlayerId((byte) -1);
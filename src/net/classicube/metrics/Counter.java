@@ -0,0 +1,20 @@
+package net.classicube.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Monotonic counter, striped so concurrent increments from client threads don't contend
+public class Counter {
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
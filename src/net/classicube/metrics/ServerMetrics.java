@@ -0,0 +1,130 @@
+package net.classicube.metrics;
+
+import net.classicube.ClientHandler;
+import net.classicube.packets.PacketType;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The server's built-in metrics, served on /metrics of the game port
+public final class ServerMetrics {
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    private static final Counter[] PACKETS_IN = new Counter[PacketType.values().length];
+    private static final Counter[] PACKETS_OUT = new Counter[PacketType.values().length];
+
+    public static final Counter BYTES_SENT = REGISTRY.counter("classic_bytes_sent_total",
+            "Bytes written to client connections");
+    public static final Counter TICK_OVERRUNS = REGISTRY.counter("classic_tick_overruns_total",
+            "Ticks that took longer than their budget");
+    public static final Counter MAP_BYTES_SENT = REGISTRY.counter("classic_map_bytes_sent_total",
+            "Level data chunk bytes written to joining clients");
+    public static final Counter HANDSHAKES_REJECTED = REGISTRY.counter("classic_handshakes_rejected_total",
+            "Connections closed because too many handshakes were pending");
+    public static final Counter HANDSHAKES_TIMED_OUT = REGISTRY.counter("classic_handshakes_timed_out_total",
+            "Connections closed because the client stalled during the handshake");
+    public static final Counter ASYNC_EVENTS_DROPPED = REGISTRY.counter("classic_async_events_dropped_total",
+            "Events not delivered to async listeners because their queue was full or shut down");
+    public static final Counter SLOW_CLIENTS_DROPPED = REGISTRY.counter("classic_slow_clients_dropped_total",
+            "Clients disconnected because they fell too far behind on broadcasts");
+    public static final Counter HTTP_STALLED_TRANSFERS = REGISTRY.counter("classic_http_stalled_transfers_total",
+            "Web downloads closed because the client stopped reading");
+    public static final Counter WEBSOCKET_DEFLATE_INPUT = REGISTRY.counter("classic_websocket_deflate_input_bytes_total",
+            "WebSocket payload bytes before permessage-deflate");
+    public static final Counter WEBSOCKET_DEFLATE_OUTPUT = REGISTRY.counter("classic_websocket_deflate_output_bytes_total",
+            "WebSocket payload bytes after permessage-deflate");
+    public static final Histogram BROADCAST_FANOUT = REGISTRY.histogram("classic_broadcast_fanout",
+            "Clients reached per broadcast", 1);
+    public static final Histogram LEVEL_SEND = REGISTRY.histogram("classic_level_send_seconds",
+            "Time to send a level to a client", 1e-9);
+    public static final Histogram MAP_THROTTLE = REGISTRY.histogram("classic_map_throttle_seconds",
+            "Time a level data chunk waited for the map download budget", 1e-9);
+    public static final Histogram LEVEL_SAVE = REGISTRY.histogram("classic_level_save_seconds",
+            "Time to save a level to disk", 1e-9);
+    public static final Histogram TICK_TIME = REGISTRY.histogram("classic_tick_seconds",
+            "Time spent in one server tick", 1e-9);
+
+    // What connection threads allocated, added as each one ends, since the thread MXBean only
+    // reports live threads. Ended threads stay in finishedThreads until they are gone, so a
+    // scrape in between doesn't count them twice.
+    private static final Counter FINISHED_THREADS_ALLOCATED = new Counter();
+    private static final Set<Long> finishedThreads = ConcurrentHashMap.newKeySet();
+    private static final com.sun.management.ThreadMXBean HOTSPOT_THREADS;
+
+    static {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        HOTSPOT_THREADS = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+
+        for (PacketType type : PacketType.values()) {
+            PACKETS_IN[type.ordinal()] = REGISTRY.counter("classic_packets_received_total",
+                    "Packets received from clients", "type", type.name());
+            PACKETS_OUT[type.ordinal()] = REGISTRY.counter("classic_packets_sent_total",
+                    "Packets sent to clients", "type", type.name());
+        }
+        REGISTRY.gauge("classic_connected_clients", "Clients currently connected", ClientHandler::getClientCount);
+
+        // HotSpot extensions, for comparing CPU and allocation between builds
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            com.sun.management.OperatingSystemMXBean hotspotOs = (com.sun.management.OperatingSystemMXBean) os;
+            REGISTRY.gauge("classic_process_cpu_seconds", "CPU time used by the server process",
+                    () -> hotspotOs.getProcessCpuTime() / 1e9);
+        }
+        if (HOTSPOT_THREADS != null) {
+            REGISTRY.gauge("classic_thread_allocated_bytes", "Bytes allocated by server threads, including ones that have ended",
+                    ServerMetrics::allocatedBytes);
+        }
+    }
+
+    private ServerMetrics() {
+    }
+
+    // Wraps the body of a thread that ends while the server runs, such as a connection's,
+    // so its allocation still counts towards classic_thread_allocated_bytes afterwards
+    public static Runnable countingAllocation(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } finally {
+                if (HOTSPOT_THREADS != null) {
+                    long id = Thread.currentThread().getId();
+                    long allocated = HOTSPOT_THREADS.getThreadAllocatedBytes(id);
+                    finishedThreads.add(id);
+                    if (allocated > 0) {
+                        FINISHED_THREADS_ALLOCATED.add(allocated);
+                    }
+                }
+            }
+        };
+    }
+
+    private static double allocatedBytes() {
+        // The finished total first: a thread ending during the scan is then left out of this
+        // scrape rather than counted twice
+        long total = FINISHED_THREADS_ALLOCATED.get();
+        long[] ids = HOTSPOT_THREADS.getAllThreadIds();
+        long[] allocated = HOTSPOT_THREADS.getThreadAllocatedBytes(ids);
+        Set<Long> live = new HashSet<>();
+        for (int i = 0; i < ids.length; i++) {
+            live.add(ids[i]);
+            if (allocated[i] > 0 && !finishedThreads.contains(ids[i])) {
+                total += allocated[i];
+            }
+        }
+        finishedThreads.retainAll(live);
+        return total;
+    }
+
+    public static Counter packetsIn(PacketType type) {
+        return PACKETS_IN[type.ordinal()];
+    }
+
+    public static Counter packetsOut(PacketType type) {
+        return PACKETS_OUT[type.ordinal()];
+    }
+}
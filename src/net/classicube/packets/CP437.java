@@ -0,0 +1,141 @@
+package net.classicube.packets;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Classic protocol strings: 64 bytes of code page 437, padded at the end. Bytes below
+// 0x80 are passed through as ASCII, as clients use them for colour codes and text.
+public final class CP437 {
+    private static final String HIGH_HALF =
+            "\u00c7\u00fc\u00e9\u00e2\u00e4\u00e0\u00e5\u00e7\u00ea\u00eb\u00e8\u00ef\u00ee\u00ec\u00c4\u00c5" +
+            "\u00c9\u00e6\u00c6\u00f4\u00f6\u00f2\u00fb\u00f9\u00ff\u00d6\u00dc\u00a2\u00a3\u00a5\u20a7\u0192" +
+            "\u00e1\u00ed\u00f3\u00fa\u00f1\u00d1\u00aa\u00ba\u00bf\u2310\u00ac\u00bd\u00bc\u00a1\u00ab\u00bb" +
+            "\u2591\u2592\u2593\u2502\u2524\u2561\u2562\u2556\u2555\u2563\u2551\u2557\u255d\u255c\u255b\u2510" +
+            "\u2514\u2534\u252c\u251c\u2500\u253c\u255e\u255f\u255a\u2554\u2569\u2566\u2560\u2550\u256c\u2567" +
+            "\u2568\u2564\u2565\u2559\u2558\u2552\u2553\u256b\u256a\u2518\u250c\u2588\u2584\u258c\u2590\u2580" +
+            "\u03b1\u00df\u0393\u03c0\u03a3\u03c3\u00b5\u03c4\u03a6\u0398\u03a9\u03b4\u221e\u03c6\u03b5\u2229" +
+            "\u2261\u00b1\u2265\u2264\u2320\u2321\u00f7\u2248\u00b0\u2219\u00b7\u221a\u207f\u00b2\u25a0\u00a0";
+    private static final char[] DECODE = new char[256];
+    private static final byte[] ENCODE = new byte[65536];
+    private static final int INTERN_SLOTS = 1024;
+    private static final String[] INTERNED = new String[INTERN_SLOTS];
+
+    static {
+        Arrays.fill(ENCODE, (byte) '?');
+        for (int i = 0; i < 256; i++) {
+            char c = i < 0x80 ? (char) i : HIGH_HALF.charAt(i - 0x80);
+            DECODE[i] = c;
+            ENCODE[c] = (byte) i;
+        }
+    }
+
+    private CP437() {
+    }
+
+    // Decodes a padded field, dropping leading and trailing spaces and zero padding
+    public static String decode(byte[] data, int offset, int length) {
+        int start = trimStart(data, offset, offset + length);
+        int end = trimEnd(data, start, offset + length);
+        return decodeRange(data, start, end);
+    }
+
+    // Like decode, but repeated values come back as the same String instance without
+    // allocating. Meant for names and other short strings that recur.
+    public static String intern(byte[] data, int offset, int length) {
+        int start = trimStart(data, offset, offset + length);
+        int end = trimEnd(data, start, offset + length);
+
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + data[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (INTERN_SLOTS - 1);
+
+        // Slots are overwritten on collision; a lost race only costs a duplicate string
+        String cached = INTERNED[slot];
+        if (cached != null && matches(cached, data, start, end)) {
+            return cached;
+        }
+        String value = decodeRange(data, start, end);
+        INTERNED[slot] = value;
+        return value;
+    }
+
+    // Writes value into a field of the given length, padded with zeros. Characters
+    // outside code page 437 become '?'.
+    public static void encode(String value, byte[] dest, int offset, int length) {
+        int count = Math.min(value.length(), length);
+        for (int i = 0; i < count; i++) {
+            dest[offset + i] = ENCODE[value.charAt(i)];
+        }
+        for (int i = count; i < length; i++) {
+            dest[offset + i] = 0;
+        }
+    }
+
+    public static void encode(String value, ByteBuffer out, int length) {
+        if (out.hasArray()) {
+            encode(value, out.array(), out.arrayOffset() + out.position(), length);
+            ((Buffer) out).position(out.position() + length);
+            return;
+        }
+        int count = Math.min(value.length(), length);
+        for (int i = 0; i < count; i++) {
+            out.put(ENCODE[value.charAt(i)]);
+        }
+        for (int i = count; i < length; i++) {
+            out.put((byte) 0);
+        }
+    }
+
+    public static boolean canEncode(char c) {
+        return ENCODE[c] != '?' || c == '?';
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String decodeRange(byte[] data, int start, int end) {
+        boolean ascii = true;
+        for (int i = start; i < end; i++) {
+            if (data[i] < 0) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            // Copies the bytes straight into the string, no decoder involved
+            return new String(data, 0, start, end - start);
+        }
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = DECODE[data[i] & 0xFF];
+        }
+        return new String(chars);
+    }
+
+    private static boolean matches(String value, byte[] data, int start, int end) {
+        if (value.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i - start) != DECODE[data[i] & 0xFF]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int trimStart(byte[] data, int start, int end) {
+        while (start < end && (data[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(byte[] data, int start, int end) {
+        while (end > start && (data[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+}
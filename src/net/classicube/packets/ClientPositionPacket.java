@@ -3,6 +3,7 @@ package net.classicube.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class ClientPositionPacket extends Packet {
     private byte playerId;
@@ -17,14 +18,14 @@ public class ClientPositionPacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(playerId);
-        out.writeShort(x);
-        out.writeShort(y);
-        out.writeShort(z);
-        out.writeByte(yaw);
-        out.writeByte(pitch);
+        out.put(playerId);
+        out.putShort(x);
+        out.putShort(y);
+        out.putShort(z);
+        out.put(yaw);
+        out.put(pitch);
     }
 
     @Override
@@ -37,6 +38,16 @@ public class ClientPositionPacket extends Packet {
         pitch = in.readByte();
     }
 
+    @Override
+    public void read(ByteBuffer in) {
+        playerId = in.get();
+        x = in.getShort();
+        y = in.getShort();
+        z = in.getShort();
+        yaw = in.get();
+        pitch = in.get();
+    }
+
     // Method to set player position using double values
     public void setPosition(double x, double y, double z) {
         this.x = (short) (x * 32); // Convert to fixed-point
@@ -3,6 +3,7 @@ package net.classicube.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class DespawnPlayerPacket extends Packet {
     private byte playerId;
@@ -12,9 +13,9 @@ public class DespawnPlayerPacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(playerId);
+        out.put(playerId);
     }
 
     @Override
@@ -3,6 +3,7 @@ package net.classicube.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class DisconnectPlayerPacket extends Packet {
     private String reason;
@@ -12,7 +13,7 @@ public class DisconnectPlayerPacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
         Packet.writeString(out, reason);
     }
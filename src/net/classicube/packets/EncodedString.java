@@ -0,0 +1,32 @@
+package net.classicube.packets;
+
+// A string field encoded once, for values sent over and over such as player names
+// and the server name and MOTD
+public final class EncodedString {
+    public static final int LENGTH = 64;
+
+    private final String value;
+    private final byte[] bytes = new byte[LENGTH];
+
+    private EncodedString(String value) {
+        this.value = value;
+        CP437.encode(value, bytes, 0, LENGTH);
+    }
+
+    public static EncodedString of(String value) {
+        return new EncodedString(value == null ? "" : value);
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
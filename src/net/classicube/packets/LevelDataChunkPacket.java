@@ -3,6 +3,7 @@ package net.classicube.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class LevelDataChunkPacket extends Packet {
@@ -17,11 +18,11 @@ public class LevelDataChunkPacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeShort(chunkLength);
-        out.write(chunkData, 0, CHUNK_SIZE); // Always write 1024 bytes
-        out.writeByte(percentComplete);
+        out.putShort(chunkLength);
+        out.put(chunkData, 0, CHUNK_SIZE); // Always write 1024 bytes
+        out.put(percentComplete);
     }
 
     @Override
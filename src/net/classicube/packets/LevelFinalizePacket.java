@@ -3,6 +3,7 @@ package net.classicube.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class LevelFinalizePacket extends Packet {
     private short xSize;
@@ -14,11 +15,11 @@ public class LevelFinalizePacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeShort(xSize);
-        out.writeShort(ySize);
-        out.writeShort(zSize);
+        out.putShort(xSize);
+        out.putShort(ySize);
+        out.putShort(zSize);
     }
 
     @Override
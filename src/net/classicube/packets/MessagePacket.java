@@ -3,6 +3,7 @@ package net.classicube.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class MessagePacket extends Packet {
     private byte playerId;
@@ -13,9 +14,9 @@ public class MessagePacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(playerId);
+        out.put(playerId);
         Packet.writeString(out, message);
     }
 
@@ -25,6 +26,12 @@ public class MessagePacket extends Packet {
         message = Packet.readString(in);
     }
 
+    @Override
+    public void read(ByteBuffer in) {
+        playerId = in.get();
+        message = Packet.readString(in);
+    }
+
     // Getters and setters
     public byte getPlayerId() {
         return playerId;
@@ -53,7 +60,17 @@ public class MessagePacket extends Packet {
             input = input.substring(0, 64);
         }
 
-        // Replace any invalid characters with spaces
-        return input.replaceAll("[^\\x20-\\x7E]", " ");
+        // Replace control characters and anything outside code page 437 with spaces
+        char[] chars = null;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c < 0x20 || c == 0x7F || !CP437.canEncode(c)) {
+                if (chars == null) {
+                    chars = input.toCharArray();
+                }
+                chars[i] = ' ';
+            }
+        }
+        return chars == null ? input : new String(chars);
     }
 }
\ No newline at end of file
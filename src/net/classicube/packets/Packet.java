@@ -1,9 +1,11 @@
 package net.classicube.packets;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 
 public abstract class Packet {
     protected final PacketType type;
@@ -15,23 +17,56 @@ public abstract class Packet {
     protected static String readString(DataInputStream in) throws IOException {
         byte[] bytes = new byte[64];
         in.readFully(bytes);
-        return new String(bytes, StandardCharsets.UTF_8).trim();
+        return CP437.decode(bytes, 0, bytes.length);
     }
 
-    protected static void writeString(DataOutputStream out, String s) throws IOException {
-        byte[] bytes = new byte[64];
-        byte[] stringBytes = s.getBytes(StandardCharsets.UTF_8);
-        System.arraycopy(stringBytes, 0, bytes, 0, Math.min(stringBytes.length, 64));
-        out.write(bytes);
+    protected static String readString(ByteBuffer in) {
+        String value = CP437.decode(in.array(), in.arrayOffset() + in.position(), 64);
+        ((Buffer) in).position(in.position() + 64);
+        return value;
+    }
+
+    // For strings that repeat across packets, such as player names
+    protected static String readName(ByteBuffer in) {
+        String value = CP437.intern(in.array(), in.arrayOffset() + in.position(), 64);
+        ((Buffer) in).position(in.position() + 64);
+        return value;
+    }
+
+    protected static void writeString(ByteBuffer out, String s) {
+        CP437.encode(s, out, 64);
+    }
+
+    protected static void writeString(ByteBuffer out, EncodedString s) {
+        out.put(s.getBytes(), 0, EncodedString.LENGTH);
     }
 
     public PacketType getType() {
         return type;
     }
 
+    // Encoded size, id included. Every Classic packet has a fixed size.
+    public int getLength() {
+        return type.getLength();
+    }
+
+    // Encodes the packet at the buffer's position. The buffer needs getLength() bytes free.
+    public void write(ByteBuffer out) {
+        out.put(type.getId());
+    }
+
+    // Convenience for stream-based callers; the server writes packets with write(ByteBuffer)
     public void write(DataOutputStream out) throws IOException {
-        out.writeByte(this.getType().getId());
+        ByteBuffer buffer = ByteBuffer.allocate(getLength());
+        write(buffer);
+        out.write(buffer.array(), 0, buffer.position());
     }
 
     public abstract void read(DataInputStream in) throws IOException;
+
+    // Decodes a body that is already in memory, positioned after the id byte. Packets
+    // clients send override this; the default goes through read(DataInputStream).
+    public void read(ByteBuffer in) throws IOException {
+        read(new DataInputStream(new ByteArrayInputStream(in.array(), in.arrayOffset() + in.position(), in.remaining())));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package net.classicube.packets;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+// Packet id lookup tables, one per direction since the ids overlap, and a reader that
+// pulls each fixed-length packet off the stream with a single readFully.
+public final class PacketCodec {
+    private static final PacketType[] TO_SERVER = new PacketType[256];
+    private static final PacketType[] TO_CLIENT = new PacketType[256];
+    public static final int MAX_TO_SERVER_LENGTH;
+
+    static {
+        int maxLength = 0;
+        for (PacketType type : PacketType.values()) {
+            if (type.getDirection() == null) {
+                continue;
+            }
+            int index = type.getId() & 0xFF;
+            if (type.getDirection().isToServer()) {
+                register(TO_SERVER, index, type);
+                maxLength = Math.max(maxLength, type.getLength());
+            }
+            if (type.getDirection().isToClient()) {
+                register(TO_CLIENT, index, type);
+            }
+        }
+        MAX_TO_SERVER_LENGTH = maxLength;
+    }
+
+    private final DataInputStream in;
+    private final byte[] data = new byte[MAX_TO_SERVER_LENGTH];
+    private final ByteBuffer payload = ByteBuffer.wrap(data);
+    private PacketType type;
+
+    public PacketCodec(DataInputStream in) {
+        this.in = in;
+    }
+
+    private static void register(PacketType[] table, int index, PacketType type) {
+        if (table[index] != null) {
+            throw new IllegalStateException("Packet id " + index + " is used by both " + table[index] + " and " + type);
+        }
+        table[index] = type;
+    }
+
+    // Returns null for ids the client isn't allowed to send
+    public static PacketType toServer(byte id) {
+        return TO_SERVER[id & 0xFF];
+    }
+
+    // Returns null for ids the server can't send
+    public static PacketType toClient(byte id) {
+        return TO_CLIENT[id & 0xFF];
+    }
+
+    // Blocks until a whole client packet has arrived and returns its type. The body is
+    // available from getPayload() until the next call.
+    public PacketType readPacket() throws IOException {
+        int id = in.read();
+        if (id == -1) {
+            throw new EOFException();
+        }
+        PacketType next = TO_SERVER[id];
+        if (next == null) {
+            type = null;
+            throw new IOException(String.format("Unknown packet id 0x%02x", id));
+        }
+        data[0] = (byte) id;
+        in.readFully(data, 1, next.getLength() - 1);
+        type = next;
+        return next;
+    }
+
+    // The last packet's body, positioned after the id byte
+    public ByteBuffer getPayload() {
+        ((Buffer) payload).limit(type.getLength()).position(1);
+        return payload;
+    }
+
+    public PacketType getType() {
+        return type;
+    }
+
+    // The last packet's raw bytes, id included; valid for getType().getLength() bytes
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -2,59 +2,86 @@ package net.classicube.packets;
 
 public enum PacketType {
     // Client → Server packets
-    PLAYER_IDENTIFICATION(0x00),
-    SET_BLOCK(0x05),
-    POSITION_ORIENTATION(0x08),
-    MESSAGE(0x0d),
+    PLAYER_IDENTIFICATION(0x00, 131, Direction.TO_SERVER),
+    SET_BLOCK(0x05, 9, Direction.TO_SERVER),
+    POSITION_ORIENTATION(0x08, 10, Direction.TO_SERVER),
+    MESSAGE(0x0d, 66, Direction.TO_SERVER),
 
     // Server → Client packets
-    SERVER_IDENTIFICATION(0x00),
-    PING(0x01),
-    LEVEL_INITIALIZE(0x02),
-    LEVEL_DATA_CHUNK(0x03),
-    LEVEL_FINALIZE(0x04),
-    SET_BLOCK_SERVER(0x06),
-    SPAWN_PLAYER(0x07),
-    SET_POSITION_ORIENTATION(0x08),
-    POSITION_ORIENTATION_UPDATE(0x09),
-    POSITION_UPDATE(0x0a),
-    ORIENTATION_UPDATE(0x0b),
-    DESPAWN_PLAYER(0x0c),
-    MESSAGE_SERVER(0x0d),
-    DISCONNECT_PLAYER(0x0e),
-    UPDATE_USER_TYPE(0x0f),
-
-    // CPE packetts
-
-    CPE_EXTINFO(0x10),
-    CPE_EXTENTRY(0x11),
-    CPE_MAKE_SELECTION(0x1A),
-    CPE_REMOVE_SELECTION(0x1B),
-    CPE_EXT_ADD_PLAYERNAME(0x16),
-    CPE_EXT_REMOVE_PLAYER_NAME(0x18),
-    CPE_ENV_SET_COLORS(0x19),
-    CPE_HELD_BLOCK(0x14),
-    CPE_WEATHER_TYPE(0x1F),
-    CPE_HACK_CONTROL(0x20),
+    SERVER_IDENTIFICATION(0x00, 131, Direction.TO_CLIENT),
+    PING(0x01, 1, Direction.TO_CLIENT),
+    LEVEL_INITIALIZE(0x02, 1, Direction.TO_CLIENT),
+    LEVEL_DATA_CHUNK(0x03, 1028, Direction.TO_CLIENT),
+    LEVEL_FINALIZE(0x04, 7, Direction.TO_CLIENT),
+    SET_BLOCK_SERVER(0x06, 8, Direction.TO_CLIENT),
+    SPAWN_PLAYER(0x07, 74, Direction.TO_CLIENT),
+    SET_POSITION_ORIENTATION(0x08, 10, Direction.TO_CLIENT),
+    POSITION_ORIENTATION_UPDATE(0x09, 7, Direction.TO_CLIENT),
+    POSITION_UPDATE(0x0a, 5, Direction.TO_CLIENT),
+    ORIENTATION_UPDATE(0x0b, 4, Direction.TO_CLIENT),
+    DESPAWN_PLAYER(0x0c, 2, Direction.TO_CLIENT),
+    MESSAGE_SERVER(0x0d, 66, Direction.TO_CLIENT),
+    DISCONNECT_PLAYER(0x0e, 65, Direction.TO_CLIENT),
+    UPDATE_USER_TYPE(0x0f, 2, Direction.TO_CLIENT),
+
+    // CPE packets
+    CPE_EXTINFO(0x10, 67, Direction.BOTH),
+    CPE_EXTENTRY(0x11, 69, Direction.BOTH),
+    CPE_MAKE_SELECTION(0x1A, 86, Direction.TO_CLIENT),
+    CPE_REMOVE_SELECTION(0x1B, 2, Direction.TO_CLIENT),
+    CPE_EXT_ADD_PLAYERNAME(0x16, 196, Direction.TO_CLIENT),
+    CPE_EXT_REMOVE_PLAYER_NAME(0x18, 3, Direction.TO_CLIENT),
+    CPE_ENV_SET_COLORS(0x19, 8, Direction.TO_CLIENT),
+    CPE_HELD_BLOCK(0x14, 3, Direction.TO_CLIENT),
+    CPE_WEATHER_TYPE(0x1F, 2, Direction.TO_CLIENT),
+    CPE_HACK_CONTROL(0x20, 8, Direction.TO_CLIENT),
     // Special type for unknown packets
-    UNKNOWN(-1);
+    UNKNOWN(-1, 0, null);
 
     private final byte id;
+    private final int length;
+    private final Direction direction;
 
-    PacketType(int id) {
+    PacketType(int id, int length, Direction direction) {
         this.id = (byte) id;
+        this.length = length;
+        this.direction = direction;
     }
 
+    // Ids are reused between directions, so prefer PacketCodec.toServer/toClient where the direction is known.
+    // This checks client → server packets first.
     public static PacketType fromId(byte id) {
-        for (PacketType type : values()) {
-            if (type.getId() == id) {
-                return type;
-            }
+        PacketType type = PacketCodec.toServer(id);
+        if (type == null) {
+            type = PacketCodec.toClient(id);
         }
-        return UNKNOWN;
+        return type != null ? type : UNKNOWN;
     }
 
     public byte getId() {
         return id;
     }
+
+    // Size on the wire, including the id byte
+    public int getLength() {
+        return length;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public enum Direction {
+        TO_SERVER,
+        TO_CLIENT,
+        BOTH;
+
+        public boolean isToServer() {
+            return this != TO_CLIENT;
+        }
+
+        public boolean isToClient() {
+            return this != TO_SERVER;
+        }
+    }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package net.classicube.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class PlayerIdentificationPacket extends Packet {
     private byte protocolVersion;
@@ -15,12 +16,12 @@ public class PlayerIdentificationPacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(protocolVersion);
+        out.put(protocolVersion);
         Packet.writeString(out, username);
         Packet.writeString(out, verificationKey);
-        out.writeByte(paddingByte);
+        out.put(paddingByte);
     }
 
     @Override
@@ -31,6 +32,14 @@ public class PlayerIdentificationPacket extends Packet {
         paddingByte = in.readByte();
     }
 
+    @Override
+    public void read(ByteBuffer in) {
+        protocolVersion = in.get();
+        username = Packet.readName(in);
+        verificationKey = Packet.readString(in);
+        paddingByte = in.get();
+    }
+
     // Getters and setters
     public byte getProtocolVersion() {
         return protocolVersion;
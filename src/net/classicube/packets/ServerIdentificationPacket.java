@@ -3,11 +3,12 @@ package net.classicube.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class ServerIdentificationPacket extends Packet {
     private byte protocolVersion;
-    private String serverName;
-    private String serverMOTD;
+    private EncodedString serverName = EncodedString.of("");
+    private EncodedString serverMOTD = EncodedString.of("");
     private byte userType;
 
     public ServerIdentificationPacket() {
@@ -15,19 +16,19 @@ public class ServerIdentificationPacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(protocolVersion);
+        out.put(protocolVersion);
         Packet.writeString(out, serverName);
         Packet.writeString(out, serverMOTD);
-        out.writeByte(userType);
+        out.put(userType);
     }
 
     @Override
     public void read(DataInputStream in) throws IOException {
         protocolVersion = in.readByte();
-        serverName = Packet.readString(in);
-        serverMOTD = Packet.readString(in);
+        serverName = EncodedString.of(Packet.readString(in));
+        serverMOTD = EncodedString.of(Packet.readString(in));
         userType = in.readByte();
     }
 
@@ -41,18 +42,26 @@ public class ServerIdentificationPacket extends Packet {
     }
 
     public String getServerName() {
-        return serverName;
+        return serverName.getValue();
     }
 
     public void setServerName(String serverName) {
+        this.serverName = EncodedString.of(serverName);
+    }
+
+    public void setServerName(EncodedString serverName) {
         this.serverName = serverName;
     }
 
     public String getServerMOTD() {
-        return serverMOTD;
+        return serverMOTD.getValue();
     }
 
     public void setServerMOTD(String serverMOTD) {
+        this.serverMOTD = EncodedString.of(serverMOTD);
+    }
+
+    public void setServerMOTD(EncodedString serverMOTD) {
         this.serverMOTD = serverMOTD;
     }
 
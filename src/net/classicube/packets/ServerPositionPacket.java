@@ -3,6 +3,7 @@ package net.classicube.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class ServerPositionPacket extends Packet {
     private byte playerId;
@@ -17,14 +18,14 @@ public class ServerPositionPacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(playerId);
-        out.writeShort(x);
-        out.writeShort(y);
-        out.writeShort(z);
-        out.writeByte(yaw);
-        out.writeByte(pitch);
+        out.put(playerId);
+        out.putShort(x);
+        out.putShort(y);
+        out.putShort(z);
+        out.put(yaw);
+        out.put(pitch);
     }
 
     @Override
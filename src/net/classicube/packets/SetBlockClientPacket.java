@@ -6,6 +6,7 @@ import net.classicube.api.enums.SetBlockMode;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class SetBlockClientPacket extends Packet {
     private short x;
@@ -19,13 +20,13 @@ public class SetBlockClientPacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeShort(x);
-        out.writeShort(y);
-        out.writeShort(z);
-        out.writeByte(mode);
-        out.writeByte(blockType);
+        out.putShort(x);
+        out.putShort(y);
+        out.putShort(z);
+        out.put(mode);
+        out.put(blockType);
     }
 
     @Override
@@ -39,6 +40,15 @@ public class SetBlockClientPacket extends Packet {
         //        ", mode=" + mode + ", blockType=" + blockType);
     }
 
+    @Override
+    public void read(ByteBuffer in) {
+        x = in.getShort();
+        y = in.getShort();
+        z = in.getShort();
+        mode = in.get();
+        blockType = in.get();
+    }
+
     public short getX() {
         return x;
     }
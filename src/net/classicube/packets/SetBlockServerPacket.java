@@ -3,6 +3,7 @@ package net.classicube.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class SetBlockServerPacket extends Packet {
     private short x;
@@ -15,12 +16,12 @@ public class SetBlockServerPacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeShort(x);
-        out.writeShort(y);
-        out.writeShort(z);
-        out.writeByte(blockType);
+        out.putShort(x);
+        out.putShort(y);
+        out.putShort(z);
+        out.put(blockType);
         //System.out.println("Sent SET_BLOCK to client: x=" + x + ", y=" + y + ", z=" + z +
         //       ", blockType=" + blockType);
     }
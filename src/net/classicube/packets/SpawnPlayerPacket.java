@@ -3,10 +3,11 @@ package net.classicube.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class SpawnPlayerPacket extends Packet {
     private byte playerId;
-    private String playerName;
+    private EncodedString playerName = EncodedString.of("");
     private short x;
     private short y;
     private short z;
@@ -18,21 +19,21 @@ public class SpawnPlayerPacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(playerId);
+        out.put(playerId);
         Packet.writeString(out, playerName);
-        out.writeShort(x);
-        out.writeShort(y);
-        out.writeShort(z);
-        out.writeByte(yaw);
-        out.writeByte(pitch);
+        out.putShort(x);
+        out.putShort(y);
+        out.putShort(z);
+        out.put(yaw);
+        out.put(pitch);
     }
 
     @Override
     public void read(DataInputStream in) throws IOException {
         playerId = in.readByte();
-        playerName = Packet.readString(in);
+        playerName = EncodedString.of(Packet.readString(in));
         x = in.readShort();
         y = in.readShort();
         z = in.readShort();
@@ -50,10 +51,14 @@ public class SpawnPlayerPacket extends Packet {
     }
 
     public String getPlayerName() {
-        return playerName;
+        return playerName.getValue();
     }
 
     public void setPlayerName(String playerName) {
+        this.playerName = EncodedString.of(playerName);
+    }
+
+    public void setPlayerName(EncodedString playerName) {
         this.playerName = playerName;
     }
 
@@ -0,0 +1,33 @@
+package net.classicube.packets;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class UpdateUserTypePacket extends Packet {
+    private byte userType;
+
+    public UpdateUserTypePacket() {
+        super(PacketType.UPDATE_USER_TYPE);
+    }
+
+    @Override
+    public void write(ByteBuffer out) {
+        super.write(out);
+        out.put(userType);
+    }
+
+    @Override
+    public void read(DataInputStream in) throws IOException {
+        userType = in.readByte();
+    }
+
+    // Getter and setter
+    public byte getUserType() {
+        return userType;
+    }
+
+    public void setUserType(byte userType) {
+        this.userType = userType;
+    }
+}
@@ -0,0 +1,62 @@
+package net.classicube.packets.cpe;
+
+import net.classicube.packets.PacketType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The CPE extensions this server implements, at the version it implements them, and the
+// packets that need each one. Every extension owns one bit, so the set a client agreed to
+// is a single long and checking a packet against it is a table lookup and a mask.
+public enum CPEExtension {
+    HELD_BLOCK("HeldBlock", 1, PacketType.CPE_HELD_BLOCK),
+    EXT_PLAYER_LIST("ExtPlayerList", 2, PacketType.CPE_EXT_ADD_PLAYERNAME, PacketType.CPE_EXT_REMOVE_PLAYER_NAME),
+    ENV_COLORS("EnvColors", 1, PacketType.CPE_ENV_SET_COLORS),
+    SELECTION_CUBOID("SelectionCuboid", 1, PacketType.CPE_MAKE_SELECTION, PacketType.CPE_REMOVE_SELECTION),
+    ENV_WEATHER_TYPE("EnvWeatherType", 1, PacketType.CPE_WEATHER_TYPE),
+    HACK_CONTROL("HackControl", 1, PacketType.CPE_HACK_CONTROL);
+
+    private static final long[] REQUIRED = new long[PacketType.values().length];
+    private static final Map<String, CPEExtension> BY_NAME = new HashMap<>();
+
+    static {
+        for (CPEExtension extension : values()) {
+            for (PacketType type : extension.packets) {
+                REQUIRED[type.ordinal()] |= extension.getMask();
+            }
+            BY_NAME.put(extension.name, extension);
+        }
+    }
+
+    private final String name;
+    private final int version;
+    private final PacketType[] packets;
+
+    CPEExtension(String name, int version, PacketType... packets) {
+        this.name = name;
+        this.version = version;
+        this.packets = packets;
+    }
+
+    // Extensions a client must have agreed to before it may be sent this packet type
+    public static long requiredFor(PacketType type) {
+        return REQUIRED[type.ordinal()];
+    }
+
+    // Returns null for extensions this server doesn't implement
+    public static CPEExtension byName(String name) {
+        return BY_NAME.get(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getMask() {
+        return 1L << ordinal();
+    }
+}
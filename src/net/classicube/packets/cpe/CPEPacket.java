@@ -6,6 +6,7 @@ import net.classicube.packets.PacketType;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class CPEPacket extends Packet {
     public CPEPacket(PacketType cpePacketType) {
@@ -13,7 +14,7 @@ public class CPEPacket extends Packet {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
     }
 
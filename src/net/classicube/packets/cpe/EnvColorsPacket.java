@@ -5,7 +5,7 @@ import net.classicube.packets.PacketType;
 
 import java.awt.*;
 import java.io.DataOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class EnvColorsPacket extends CPEPacket {
     private final EnvColorType colorType;
@@ -18,11 +18,11 @@ public class EnvColorsPacket extends CPEPacket {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(colorType.getValue());
-        out.writeShort(color.getRed());
-        out.writeShort(color.getGreen());
-        out.writeShort(color.getBlue());
+        out.put(colorType.getValue());
+        out.putShort((short) color.getRed());
+        out.putShort((short) color.getGreen());
+        out.putShort((short) color.getBlue());
     }
 }
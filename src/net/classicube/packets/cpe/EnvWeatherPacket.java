@@ -4,7 +4,7 @@ import net.classicube.api.enums.WeatherType;
 import net.classicube.packets.PacketType;
 
 import java.io.DataOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class EnvWeatherPacket extends CPEPacket {
     private final WeatherType weatherType;
@@ -15,8 +15,8 @@ public class EnvWeatherPacket extends CPEPacket {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(weatherType.getId());
+        out.put(weatherType.getId());
     }
 }
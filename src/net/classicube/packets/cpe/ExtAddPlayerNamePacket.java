@@ -3,7 +3,7 @@ package net.classicube.packets.cpe;
 import net.classicube.packets.PacketType;
 
 import java.io.DataOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class ExtAddPlayerNamePacket extends CPEPacket {
     private byte nameID;
@@ -17,13 +17,13 @@ public class ExtAddPlayerNamePacket extends CPEPacket {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeShort(nameID);
+        out.putShort((short) nameID);
         CPEPacket.writeString(out, autocompletePlayerName);
         CPEPacket.writeString(out, listPlayerName);
         CPEPacket.writeString(out, groupName);
-        out.writeByte(groupRank);
+        out.put(groupRank);
     }
 
     public void setNameID(byte nameID) {
@@ -2,23 +2,48 @@ package net.classicube.packets.cpe;
 
 import net.classicube.packets.PacketType;
 
-import java.io.DataOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class ExtEntryPacket extends CPEPacket {
-    private final String ExtensionName;
-    private final int version;
+    private String extensionName;
+    private int version;
 
-    public ExtEntryPacket(String extensionName, int version) {
+    public ExtEntryPacket() {
         super(PacketType.CPE_EXTENTRY);
-        ExtensionName = extensionName;
+    }
+
+    public ExtEntryPacket(String extensionName, int version) {
+        this();
+        this.extensionName = extensionName;
         this.version = version;
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        CPEPacket.writeString(out, this.ExtensionName);
-        out.writeByte(version);
+        CPEPacket.writeString(out, this.extensionName);
+        out.putInt(version);
+    }
+
+    @Override
+    public void read(DataInputStream in) throws IOException {
+        extensionName = CPEPacket.readString(in);
+        version = in.readInt();
+    }
+
+    @Override
+    public void read(ByteBuffer in) {
+        extensionName = CPEPacket.readName(in);
+        version = in.getInt();
+    }
+
+    public String getExtensionName() {
+        return extensionName;
+    }
+
+    public int getVersion() {
+        return version;
     }
 }
@@ -3,19 +3,48 @@ package net.classicube.packets.cpe;
 import net.classicube.MinecraftClassicServer;
 import net.classicube.packets.PacketType;
 
-import java.io.DataOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class ExtInfoPacket extends CPEPacket {
+    private String appName = MinecraftClassicServer.APP_NAME;
+    private short extensionCount;
 
     public ExtInfoPacket() {
         super(PacketType.CPE_EXTINFO);
     }
 
+    public ExtInfoPacket(int extensionCount) {
+        this();
+        this.extensionCount = (short) extensionCount;
+    }
+
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        ExtInfoPacket.writeString(out, MinecraftClassicServer.APP_NAME);
-        out.writeShort(1);
+        ExtInfoPacket.writeString(out, appName);
+        out.putShort(extensionCount);
+    }
+
+    @Override
+    public void read(DataInputStream in) throws IOException {
+        appName = ExtInfoPacket.readString(in);
+        extensionCount = in.readShort();
+    }
+
+    @Override
+    public void read(ByteBuffer in) {
+        appName = ExtInfoPacket.readString(in);
+        extensionCount = in.getShort();
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    // Number of ExtEntry packets that follow
+    public int getExtensionCount() {
+        return extensionCount;
     }
 }
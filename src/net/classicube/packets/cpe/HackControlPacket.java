@@ -3,7 +3,7 @@ package net.classicube.packets.cpe;
 import net.classicube.packets.PacketType;
 
 import java.io.DataOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class HackControlPacket extends CPEPacket {
     private final boolean flying;
@@ -28,13 +28,13 @@ public class HackControlPacket extends CPEPacket {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(boolToByte(flying));
-        out.writeByte(boolToByte(noclip));
-        out.writeByte(boolToByte(speeding));
-        out.writeByte(boolToByte(spawnControl));
-        out.writeByte(boolToByte(thirdPerson));
-        out.writeShort(jumpHeight);
+        out.put(boolToByte(flying));
+        out.put(boolToByte(noclip));
+        out.put(boolToByte(speeding));
+        out.put(boolToByte(spawnControl));
+        out.put(boolToByte(thirdPerson));
+        out.putShort(jumpHeight);
     }
 }
@@ -4,7 +4,7 @@ import net.classicube.api.enums.BlockType;
 import net.classicube.packets.PacketType;
 
 import java.io.DataOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class HeldBlockPacket extends CPEPacket {
 
@@ -18,9 +18,9 @@ public class HeldBlockPacket extends CPEPacket {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(blockType.getId());
-        out.writeByte((byte) (force ? 1 : 0));
+        out.put(blockType.getId());
+        out.put((byte) (force ? 1 : 0));
     }
 }
@@ -4,7 +4,7 @@ import net.classicube.api.BlockSelection;
 import net.classicube.packets.PacketType;
 
 import java.io.DataOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class MakeSelectionPacket extends CPEPacket {
     private final BlockSelection blockSelection;
@@ -15,20 +15,20 @@ public class MakeSelectionPacket extends CPEPacket {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(blockSelection.getSelectionId());
+        out.put(blockSelection.getSelectionId());
         CPEPacket.writeString(out, blockSelection.getLabel());
-        out.writeShort(blockSelection.getPoint1().getX());
-        out.writeShort(blockSelection.getPoint1().getY());
-        out.writeShort(blockSelection.getPoint1().getZ());
-        out.writeShort(blockSelection.getPoint2().getX());
-        out.writeShort(blockSelection.getPoint2().getY());
-        out.writeShort(blockSelection.getPoint2().getZ());
-        out.writeShort(blockSelection.getOutlineColor().getRed());
-        out.writeShort(blockSelection.getOutlineColor().getGreen());
-        out.writeShort(blockSelection.getOutlineColor().getBlue());
-        out.writeShort(blockSelection.getOutlineColor().getAlpha());
+        out.putShort((short) blockSelection.getPoint1().getX());
+        out.putShort((short) blockSelection.getPoint1().getY());
+        out.putShort((short) blockSelection.getPoint1().getZ());
+        out.putShort((short) blockSelection.getPoint2().getX());
+        out.putShort((short) blockSelection.getPoint2().getY());
+        out.putShort((short) blockSelection.getPoint2().getZ());
+        out.putShort((short) blockSelection.getOutlineColor().getRed());
+        out.putShort((short) blockSelection.getOutlineColor().getGreen());
+        out.putShort((short) blockSelection.getOutlineColor().getBlue());
+        out.putShort((short) blockSelection.getOutlineColor().getAlpha());
     }
 
 }
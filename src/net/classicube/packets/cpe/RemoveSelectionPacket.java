@@ -3,7 +3,7 @@ package net.classicube.packets.cpe;
 import net.classicube.packets.PacketType;
 
 import java.io.DataOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class RemoveSelectionPacket extends CPEPacket {
     private final byte toRemoveID;
@@ -14,8 +14,8 @@ public class RemoveSelectionPacket extends CPEPacket {
     }
 
     @Override
-    public void write(DataOutputStream out) throws IOException {
+    public void write(ByteBuffer out) {
         super.write(out);
-        out.writeByte(toRemoveID);
+        out.put(toRemoveID);
     }
 }